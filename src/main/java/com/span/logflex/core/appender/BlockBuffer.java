@@ -0,0 +1,63 @@
+package com.span.logflex.core.appender;
+
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Growable heap destination that collects the encoded events of one block.
+ */
+final class BlockBuffer implements ByteBufferDestination {
+    private ByteBuffer buffer;
+    private int events;
+
+    BlockBuffer(final int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public ByteBuffer drain(final ByteBuffer buf) {
+        final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+        return buffer;
+    }
+
+    @Override
+    public void writeBytes(final ByteBuffer data) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+    }
+
+    @Override
+    public void writeBytes(final byte[] data, final int offset, final int length) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+    }
+
+    void markEvent() {
+        events++;
+    }
+
+    int events() {
+        return events;
+    }
+
+    int size() {
+        return buffer.position();
+    }
+
+    byte[] array() {
+        return buffer.array();
+    }
+
+    void clear() {
+        buffer.clear();
+        events = 0;
+    }
+}
@@ -0,0 +1,378 @@
+package com.span.logflex.core.appender;
+
+import com.span.logflex.core.layout.FlexJsonLayout;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * Writes layout output as a sequence of independently decompressible gzip blocks plus a {@link GzipBlockIndex}.
+ * <p>
+ * The logging thread only encodes into an in-memory block. A block is handed to a background compressor
+ * when it holds {@code blockEvents} events or {@code blockBytes} bytes, or after {@code flushIntervalMillis}
+ * of quiet. If the compressor falls behind, the current block simply keeps growing; the logging thread waits
+ * only once a block reaches {@code maxBlockBytes}.
+ * <p>
+ * The block is swapped under {@code lock}, but a waiting hand-off happens outside it, holding only
+ * {@code handOffLock}, so the compressor can keep draining. The compressor never waits for {@code lock}: its
+ * flush only tries it. While a hand-off waits, later blocks are not offered, so blocks stay in order.
+ */
+@Plugin(
+        name = "BlockGzip",
+        category = Core.CATEGORY_NAME,
+        elementType = Appender.ELEMENT_TYPE,
+        printObject = true
+)
+public final class BlockGzipAppender extends AbstractAppender {
+    private final int blockEvents;
+    private final int blockBytes;
+    private final int maxBlockBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock handOffLock = new ReentrantLock();
+    private BlockGzipWriter writer;
+    // guarded by lock
+    private BlockBuffer block;
+
+    private BlockGzipAppender(String name,
+                              Filter filter,
+                              Layout<? extends Serializable> layout,
+                              boolean ignoreExceptions,
+                              Property[] properties,
+                              int blockEvents,
+                              int blockBytes,
+                              int maxBlockBytes) {
+        super(name, filter, layout, ignoreExceptions, properties);
+        this.blockEvents = blockEvents;
+        this.blockBytes = blockBytes;
+        this.maxBlockBytes = Math.max(blockBytes, maxBlockBytes);
+    }
+
+    @PluginBuilderFactory
+    public static <B extends BlockGzipAppender.Builder<B>> B newBuilder() {
+        return new BlockGzipAppender.Builder<B>().asBuilder();
+    }
+
+    private void init(final BlockGzipWriter writer) {
+        this.writer = writer;
+        this.block = writer.take();
+        final byte[] header = getLayout().getHeader();
+        if (header != null && writer.isEmpty()) {
+            block.writeBytes(header, 0, header.length);
+        }
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        // a dump is counted and split into blocks event by event
+        for (final LogEvent each : FlexJsonLayout.eventsToWrite(getLayout(), event)) {
+            appendEvent(each);
+        }
+    }
+
+    private void appendEvent(final LogEvent event) {
+        final BlockBuffer full;
+        lock.lock();
+        try {
+            if (block == null) {
+                return;
+            }
+            final int before = block.size();
+            getLayout().encode(event, block);
+            if (block.size() == before) {
+                return;
+            }
+            block.markEvent();
+            if (block.events() < blockEvents && block.size() < blockBytes || offer()) {
+                return;
+            }
+            if (block.size() < maxBlockBytes) {
+                // the compressor is behind: keep growing this block
+                return;
+            }
+            full = block;
+            block = writer.take();
+            // taken before the lock is released, so the next full block queues up behind this one
+            handOffLock.lock();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            putUninterruptibly(full);
+        } finally {
+            handOffLock.unlock();
+        }
+    }
+
+    /**
+     * Hands the current block to the compressor even if it is not full.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            offerPartial();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The compressor's flush after a quiet period; skipped while an append holds the lock, as the compressor
+     * must not wait for it. The next interval tries again.
+     */
+    void tryFlush() {
+        if (lock.tryLock()) {
+            try {
+                offerPartial();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void offerPartial() {
+        if (block != null && block.events() > 0) {
+            offer();
+        }
+    }
+
+    /**
+     * Queues the current block without waiting and starts a new one; false if the compressor is behind or a
+     * waiting hand-off has to go first.
+     */
+    private boolean offer() {
+        if (handOffLock.isLocked() || !writer.offer(block)) {
+            return false;
+        }
+        block = writer.take();
+        return true;
+    }
+
+    private void putUninterruptibly(final BlockBuffer full) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writer.put(full);
+                break;
+            } catch (final InterruptedException e) {
+                // dropping the block would lose its events; the compressor frees space soon
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void start() {
+        writer.start();
+        super.start();
+    }
+
+    @Override
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = super.stop(timeout, timeUnit, false);
+        final BlockBuffer last;
+        lock.lock();
+        try {
+            last = block;
+            // null after a previous stop
+            if (last != null) {
+                final byte[] footer = getLayout().getFooter();
+                if (footer != null) {
+                    last.writeBytes(footer, 0, footer.length);
+                }
+                block = null;
+                handOffLock.lock();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (last != null) {
+            try {
+                if (last.size() > 0) {
+                    writer.put(last);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted while stopping BlockGzipAppender {}, dropping the last {} events",
+                        getName(), last.events());
+                stopped = false;
+            } finally {
+                handOffLock.unlock();
+            }
+            stopped &= writer.stop(timeout, timeUnit);
+        }
+        setStopped();
+        return stopped;
+    }
+
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<BlockGzipAppender> {
+        @PluginBuilderAttribute
+        private String fileName;
+
+        @PluginBuilderAttribute
+        private int blockEvents = 4096;
+
+        @PluginBuilderAttribute
+        private int blockBytes = 1024 * 1024;
+
+        @PluginBuilderAttribute
+        private int maxBlockBytes = 16 * 1024 * 1024;
+
+        @PluginBuilderAttribute
+        private int maxPendingBlocks = 4;
+
+        @PluginBuilderAttribute
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+        @PluginBuilderAttribute
+        private long flushIntervalMillis = 5000;
+
+        @Override
+        public BlockGzipAppender build() {
+            if (fileName == null) {
+                LOGGER.error("No fileName provided for BlockGzipAppender {}", getName());
+                return null;
+            }
+            if (blockEvents <= 0 || blockBytes <= 0 || maxPendingBlocks <= 0 || flushIntervalMillis <= 0) {
+                LOGGER.error("Block bounds, maxPendingBlocks and flushIntervalMillis must be positive "
+                        + "for BlockGzipAppender {}", getName());
+                return null;
+            }
+            Layout<? extends Serializable> layout = getLayout();
+            if (layout == null) {
+                layout = FlexJsonLayout.newBuilder()
+                        .setConfiguration(getConfiguration())
+                        .setCompact(true)
+                        .setEventEol(true)
+                        .build();
+            }
+            final BlockGzipAppender appender = new BlockGzipAppender(getName(), getFilter(), layout,
+                    isIgnoreExceptions(), getPropertyArray(), blockEvents, blockBytes, maxBlockBytes);
+            try {
+                appender.init(new BlockGzipWriter(getName(), Paths.get(fileName), compressionLevel,
+                        maxPendingBlocks, Math.min(blockBytes + blockBytes / 4, maxBlockBytes),
+                        flushIntervalMillis, appender::tryFlush));
+            } catch (final IOException | IllegalArgumentException e) {
+                LOGGER.error("Unable to open {} for BlockGzipAppender {}: {}", fileName, getName(), e.getMessage());
+                return null;
+            }
+            return appender;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Compressed output file; the block index is written next to it with an {@code .idx} suffix.
+         *
+         * @return this builder
+         */
+        public B setFileName(final String fileName) {
+            this.fileName = fileName;
+            return asBuilder();
+        }
+
+        public int getBlockEvents() {
+            return blockEvents;
+        }
+
+        /**
+         * Number of events per block (optional, defaults to 4096).
+         *
+         * @return this builder
+         */
+        public B setBlockEvents(final int blockEvents) {
+            this.blockEvents = blockEvents;
+            return asBuilder();
+        }
+
+        public int getBlockBytes() {
+            return blockBytes;
+        }
+
+        /**
+         * Uncompressed size at which a block is closed (optional, defaults to 1 MiB).
+         *
+         * @return this builder
+         */
+        public B setBlockBytes(final int blockBytes) {
+            this.blockBytes = blockBytes;
+            return asBuilder();
+        }
+
+        public int getMaxBlockBytes() {
+            return maxBlockBytes;
+        }
+
+        /**
+         * Size a block may grow to while the compressor is behind before logging threads wait (optional, defaults to 16 MiB).
+         *
+         * @return this builder
+         */
+        public B setMaxBlockBytes(final int maxBlockBytes) {
+            this.maxBlockBytes = maxBlockBytes;
+            return asBuilder();
+        }
+
+        public int getMaxPendingBlocks() {
+            return maxPendingBlocks;
+        }
+
+        /**
+         * Filled blocks that may wait for the compressor (optional, defaults to 4).
+         *
+         * @return this builder
+         */
+        public B setMaxPendingBlocks(final int maxPendingBlocks) {
+            this.maxPendingBlocks = maxPendingBlocks;
+            return asBuilder();
+        }
+
+        public int getCompressionLevel() {
+            return compressionLevel;
+        }
+
+        /**
+         * Deflater level from 0 to 9, or -1 for the default (optional).
+         *
+         * @return this builder
+         */
+        public B setCompressionLevel(final int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+            return asBuilder();
+        }
+
+        public long getFlushIntervalMillis() {
+            return flushIntervalMillis;
+        }
+
+        /**
+         * Maximum time events wait in an incomplete block (optional, defaults to 5000).
+         *
+         * @return this builder
+         */
+        public B setFlushIntervalMillis(final long flushIntervalMillis) {
+            this.flushIntervalMillis = flushIntervalMillis;
+            return asBuilder();
+        }
+    }
+}
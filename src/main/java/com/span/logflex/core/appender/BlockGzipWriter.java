@@ -0,0 +1,231 @@
+package com.span.logflex.core.appender;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Background thread that compresses filled blocks into independent gzip members and records each one in
+ * the {@link GzipBlockIndex}. Blocks are recycled once written.
+ */
+final class BlockGzipWriter implements Runnable {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int MAX_FREE_BLOCKS = 4;
+    // bounds how long stop() waits for the thread to notice
+    private static final long POLL_MILLIS = 100;
+
+    private final Path dataFile;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    private final ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer entry = ByteBuffer.allocate(GzipBlockIndex.ENTRY_SIZE);
+    private final BlockingQueue<BlockBuffer> pending;
+    private final Queue<BlockBuffer> free = new ConcurrentLinkedQueue<>();
+    private final int initialBlockCapacity;
+    private final long flushIntervalMillis;
+    private final Runnable flush;
+    private final Thread thread;
+    private volatile boolean running;
+    private long compressedOffset;
+    private long uncompressedOffset;
+
+    BlockGzipWriter(final String name,
+                    final Path dataFile,
+                    final int compressionLevel,
+                    final int maxPendingBlocks,
+                    final int initialBlockCapacity,
+                    final long flushIntervalMillis,
+                    final Runnable flush) throws IOException {
+        this.dataFile = dataFile;
+        this.initialBlockCapacity = initialBlockCapacity;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flush = flush;
+        this.pending = new ArrayBlockingQueue<>(maxPendingBlocks);
+        final Path parent = dataFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.index = FileChannel.open(GzipBlockIndex.indexFileFor(dataFile), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+        this.deflater = new Deflater(compressionLevel, true);
+        this.thread = Log4jThreadFactory.createDaemonThreadFactory("BlockGzip-" + name).newThread(this);
+    }
+
+    /**
+     * Continues after the last indexed block. Anything written after it (a block whose index entry was lost
+     * in a crash) is cut off so offsets in the index stay exact.
+     */
+    private void recover() throws IOException {
+        if (index.size() < GzipBlockIndex.HEADER_SIZE) {
+            index.truncate(0);
+            index.write(GzipBlockIndex.header(), 0);
+        }
+        final List<GzipBlockIndex.Entry> entries = GzipBlockIndex.read(GzipBlockIndex.indexFileFor(dataFile));
+        index.truncate(GzipBlockIndex.HEADER_SIZE + (long) entries.size() * GzipBlockIndex.ENTRY_SIZE);
+        if (!entries.isEmpty()) {
+            final GzipBlockIndex.Entry last = entries.get(entries.size() - 1);
+            compressedOffset = last.compressedOffset() + last.compressedLength();
+            uncompressedOffset = last.uncompressedOffset() + last.uncompressedLength();
+        }
+        if (entries.isEmpty() && data.size() > 0) {
+            LOGGER.warn("No block index for existing {}; indexing new blocks from offset {}", dataFile, data.size());
+            compressedOffset = data.size();
+        } else if (data.size() > compressedOffset) {
+            LOGGER.warn("Truncating {} from {} to {} bytes to match its block index",
+                    dataFile, data.size(), compressedOffset);
+            data.truncate(compressedOffset);
+        }
+    }
+
+    boolean isEmpty() {
+        return compressedOffset == 0;
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * A cleared block for the appender to fill, recycled when possible.
+     */
+    BlockBuffer take() {
+        final BlockBuffer block = free.poll();
+        return block != null ? block : new BlockBuffer(initialBlockCapacity);
+    }
+
+    /**
+     * Queues a block for compression without waiting.
+     *
+     * @return false if the compressor is behind and the caller should keep the block
+     */
+    boolean offer(final BlockBuffer block) {
+        return pending.offer(block);
+    }
+
+    void put(final BlockBuffer block) throws InterruptedException {
+        pending.put(block);
+    }
+
+    boolean stop(final long timeout, final TimeUnit timeUnit) {
+        running = false;
+        try {
+            if (timeout > 0) {
+                thread.join(timeUnit.toMillis(timeout));
+            } else {
+                thread.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final boolean stopped = !thread.isAlive();
+        if (!stopped) {
+            thread.interrupt();
+        }
+        try {
+            data.force(false);
+            index.force(false);
+            data.close();
+            index.close();
+        } catch (final IOException e) {
+            LOGGER.error("Unable to close {}: {}", dataFile, e.getMessage());
+        }
+        deflater.end();
+        return stopped;
+    }
+
+    @Override
+    public void run() {
+        long lastFlush = System.nanoTime();
+        while (running || !pending.isEmpty()) {
+            final BlockBuffer block;
+            try {
+                block = pending.poll(Math.min(POLL_MILLIS, flushIntervalMillis), TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                break;
+            }
+            if (block != null) {
+                compress(block);
+            }
+            if (running && System.nanoTime() - lastFlush >= TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis)) {
+                // hands the appender's partial block over, so quiet periods do not keep events in memory
+                flush.run();
+                lastFlush = System.nanoTime();
+            }
+        }
+    }
+
+    private void compress(final BlockBuffer block) {
+        final int size = block.size();
+        try {
+            crc.reset();
+            crc.update(block.array(), 0, size);
+            deflater.reset();
+            deflater.setInput(block.array(), 0, size);
+            deflater.finish();
+
+            long written = write(ByteBuffer.wrap(GZIP_HEADER));
+            while (!deflater.finished()) {
+                out.clear();
+                out.position(deflater.deflate(out.array()));
+                out.flip();
+                written += write(out);
+            }
+            trailer.clear();
+            trailer.putInt((int) crc.getValue()).putInt(size).flip();
+            written += write(trailer);
+
+            entry.clear();
+            GzipBlockIndex.encode(new GzipBlockIndex.Entry(compressedOffset, (int) written,
+                    uncompressedOffset, size, block.events()), entry);
+            entry.flip();
+            while (entry.hasRemaining()) {
+                index.write(entry, index.size());
+            }
+            compressedOffset += written;
+            uncompressedOffset += size;
+        } catch (final IOException e) {
+            LOGGER.error("Unable to write block of {} events to {}: {}", block.events(), dataFile, e.getMessage());
+            try {
+                data.truncate(compressedOffset);
+            } catch (final IOException ignored) {
+                // the next recovery cuts it
+            }
+        }
+        if (free.size() < MAX_FREE_BLOCKS) {
+            block.clear();
+            free.offer(block);
+        }
+    }
+
+    private int write(final ByteBuffer buffer) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            data.write(buffer, data.size());
+        }
+        return length;
+    }
+}
@@ -0,0 +1,73 @@
+package com.span.logflex.core.appender;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running counters of a batching appender. All values are cumulative since the appender was created.
+ */
+public final class BulkMetrics {
+    final LongAdder eventsBatched = new LongAdder();
+    final LongAdder eventsSent = new LongAdder();
+    final LongAdder eventsDropped = new LongAdder();
+    final LongAdder batchesSent = new LongAdder();
+    final LongAdder batchesDropped = new LongAdder();
+    final LongAdder retries = new LongAdder();
+    final LongAdder bytesUncompressed = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+
+    BulkMetrics() {
+    }
+
+    public long getEventsBatched() {
+        return eventsBatched.sum();
+    }
+
+    public long getEventsSent() {
+        return eventsSent.sum();
+    }
+
+    /**
+     * Events lost because their batch could not be queued or was rejected after all retries.
+     */
+    public long getEventsDropped() {
+        return eventsDropped.sum();
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.sum();
+    }
+
+    public long getBatchesDropped() {
+        return batchesDropped.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Size of the NDJSON bodies before compression.
+     */
+    public long getBytesUncompressed() {
+        return bytesUncompressed.sum();
+    }
+
+    /**
+     * Size of the request bodies actually sent, after compression when it is enabled.
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkMetrics{eventsBatched=" + getEventsBatched()
+                + ", eventsSent=" + getEventsSent()
+                + ", eventsDropped=" + getEventsDropped()
+                + ", batchesSent=" + getBatchesSent()
+                + ", batchesDropped=" + getBatchesDropped()
+                + ", retries=" + getRetries()
+                + ", bytesUncompressed=" + getBytesUncompressed()
+                + ", bytesSent=" + getBytesSent() + '}';
+    }
+}
@@ -0,0 +1,79 @@
+package com.span.logflex.core.appender;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How encoded events are delimited on a stream transport.
+ * <p>
+ * Any trailing end-of-line or NULL delimiter already produced by the layout is stripped before the
+ * frame is applied, so the layout's {@code eventEol}/{@code includeNullDelimiter} settings never double up
+ * with the appender framing.
+ */
+public enum Framing {
+    /**
+     * Each event is followed by a single NULL byte (GELF over TCP).
+     */
+    NULL_BYTE,
+
+    /**
+     * Each event is followed by a single {@code '\n'} (NDJSON). Use with a compact layout.
+     */
+    NEWLINE,
+
+    /**
+     * Each event is preceded by its length as a 4-byte big-endian integer.
+     */
+    LENGTH_PREFIX;
+
+    /**
+     * Number of buffers {@link #frame} fills per event.
+     */
+    static final int BUFFERS_PER_EVENT = 2;
+
+    /**
+     * Capacity of the per-event buffer {@link #frame} writes the delimiter or length prefix into.
+     */
+    static final int FRAME_BYTES = Integer.BYTES;
+
+    /**
+     * Returns the length of the event payload without the trailing delimiters the layout may have appended.
+     */
+    static int payloadLength(final byte[] event) {
+        int length = event.length;
+        while (length > 0) {
+            final byte b = event[length - 1];
+            if (b != '\n' && b != '\r' && b != 0) {
+                break;
+            }
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * Fills two consecutive slots of a gathering-write array with the framed event. The delimiter or length
+     * prefix goes into {@code frame}, a buffer of at least {@link #FRAME_BYTES} owned by the caller and reused
+     * for every batch, so only the event itself is wrapped.
+     */
+    void frame(final byte[] event, final int length, final ByteBuffer frame, final ByteBuffer[] target,
+               final int offset) {
+        frame.clear();
+        switch (this) {
+            case LENGTH_PREFIX:
+                frame.putInt(length).flip();
+                target[offset] = frame;
+                target[offset + 1] = ByteBuffer.wrap(event, 0, length);
+                break;
+            case NULL_BYTE:
+                frame.put((byte) 0).flip();
+                target[offset] = ByteBuffer.wrap(event, 0, length);
+                target[offset + 1] = frame;
+                break;
+            default:
+                frame.put((byte) '\n').flip();
+                target[offset] = ByteBuffer.wrap(event, 0, length);
+                target[offset + 1] = frame;
+                break;
+        }
+    }
+}
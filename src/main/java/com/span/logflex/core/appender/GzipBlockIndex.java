@@ -0,0 +1,81 @@
+package com.span.logflex.core.appender;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Index of a block-compressed file written by {@link BlockGzipAppender}.
+ * <p>
+ * The data file is a sequence of complete gzip members, so {@code zcat} reads it as one stream, while the
+ * index lets a reader jump to any block and decompress it on its own. The index file is an 8-byte header
+ * ({@code "LFBI"}, version) followed by one fixed-size big-endian entry per block.
+ */
+public final class GzipBlockIndex {
+    public static final String SUFFIX = ".idx";
+    static final int MAGIC = 0x4C464249;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = IndexFiles.HEADER_SIZE;
+    static final int ENTRY_SIZE = 32;
+
+    /**
+     * One compressed block.
+     *
+     * @param compressedOffset   position of the gzip member in the data file
+     * @param compressedLength   length of the gzip member
+     * @param uncompressedOffset position of the block's first byte in the decompressed stream
+     * @param uncompressedLength decompressed length of the block
+     * @param events             number of events in the block
+     */
+    public record Entry(long compressedOffset, int compressedLength,
+                        long uncompressedOffset, int uncompressedLength, int events) {
+    }
+
+    private GzipBlockIndex() {
+    }
+
+    public static Path indexFileFor(final Path dataFile) {
+        return dataFile.resolveSibling(dataFile.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Reads every complete entry of an index file; a trailing partial entry left by a crash is ignored.
+     */
+    public static List<Entry> read(final Path indexFile) throws IOException {
+        return IndexFiles.read(indexFile, MAGIC, VERSION, ENTRY_SIZE, "block index", GzipBlockIndex::decode);
+    }
+
+    /**
+     * Opens a stream over the decompressed content of a single block.
+     */
+    public static InputStream openBlock(final Path dataFile, final Entry entry) throws IOException {
+        final ByteBuffer compressed = ByteBuffer.allocate(entry.compressedLength());
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            IndexFiles.readFully(channel, compressed, entry.compressedOffset());
+        }
+        return new GZIPInputStream(new ByteArrayInputStream(compressed.array()), 8192);
+    }
+
+    static ByteBuffer header() {
+        return IndexFiles.header(MAGIC, VERSION);
+    }
+
+    static void encode(final Entry entry, final ByteBuffer target) {
+        target.putLong(entry.compressedOffset())
+                .putInt(entry.compressedLength())
+                .putLong(entry.uncompressedOffset())
+                .putInt(entry.uncompressedLength())
+                .putInt(entry.events())
+                .putInt(0);
+    }
+
+    private static Entry decode(final ByteBuffer entry) {
+        return new Entry(entry.getLong(), entry.getInt(), entry.getLong(), entry.getInt(), entry.getInt());
+    }
+}
@@ -0,0 +1,371 @@
+package com.span.logflex.core.appender;
+
+import com.span.logflex.core.layout.FlexJsonLayout;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts layout output to an HTTP ingestion endpoint as NDJSON bulk requests.
+ * <p>
+ * Events are collected into batches bounded by event count, byte size and age. Each batch is optionally
+ * gzip-compressed and posted by a background dispatcher with several requests in flight; failed requests
+ * are retried with exponential backoff. When {@code bulkAction} is set (for example {@code {"index":{}}})
+ * it is written on its own line before every event, as the Elasticsearch {@code _bulk} API expects.
+ */
+@Plugin(
+        name = "HttpBulk",
+        category = Core.CATEGORY_NAME,
+        elementType = Appender.ELEMENT_TYPE,
+        printObject = true
+)
+public final class HttpBulkAppender extends AbstractAppender {
+    private final HttpBulkSender sender;
+    private final BulkMetrics metrics;
+
+    private HttpBulkAppender(String name,
+                             Filter filter,
+                             Layout<? extends Serializable> layout,
+                             boolean ignoreExceptions,
+                             Property[] properties,
+                             HttpBulkSender sender,
+                             BulkMetrics metrics) {
+        super(name, filter, layout, ignoreExceptions, properties);
+        this.sender = sender;
+        this.metrics = metrics;
+    }
+
+    @PluginBuilderFactory
+    public static <B extends HttpBulkAppender.Builder<B>> B newBuilder() {
+        return new HttpBulkAppender.Builder<B>().asBuilder();
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        // a dump goes out one bulk action per event
+        for (final LogEvent each : FlexJsonLayout.eventsToWrite(getLayout(), event)) {
+            sender.append(getLayout().toByteArray(each));
+        }
+    }
+
+    @Override
+    public void start() {
+        sender.start();
+        super.start();
+    }
+
+    @Override
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = super.stop(timeout, timeUnit, false);
+        stopped &= sender.stop(timeout, timeUnit);
+        setStopped();
+        return stopped;
+    }
+
+    /**
+     * Sends the events collected so far without waiting for the batch bounds to be reached.
+     */
+    public void flush() {
+        sender.flush();
+    }
+
+    public BulkMetrics getMetrics() {
+        return metrics;
+    }
+
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<HttpBulkAppender> {
+        @PluginBuilderAttribute
+        private String url;
+
+        @PluginBuilderAttribute
+        private String contentType = "application/x-ndjson";
+
+        @PluginBuilderAttribute
+        private String bulkAction;
+
+        @PluginBuilderAttribute
+        private int maxBatchEvents = 1000;
+
+        @PluginBuilderAttribute
+        private int maxBatchBytes = 5 * 1024 * 1024;
+
+        @PluginBuilderAttribute
+        private long flushIntervalMillis = 1000;
+
+        @PluginBuilderAttribute
+        private boolean gzip;
+
+        @PluginBuilderAttribute
+        private int maxPendingBatches = 16;
+
+        @PluginBuilderAttribute
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+        @PluginBuilderAttribute
+        private int maxInFlight = 4;
+
+        @PluginBuilderAttribute
+        private int maxRetries = 5;
+
+        @PluginBuilderAttribute
+        private long retryDelayMillis = 500;
+
+        @PluginBuilderAttribute
+        private long connectTimeoutMillis = 5000;
+
+        @PluginBuilderAttribute
+        private long requestTimeoutMillis = 30000;
+
+        @PluginElement("Headers")
+        private Property[] headers;
+
+        @Override
+        public HttpBulkAppender build() {
+            if (url == null) {
+                LOGGER.error("No url provided for HttpBulkAppender {}", getName());
+                return null;
+            }
+            final URI uri;
+            try {
+                uri = URI.create(url);
+            } catch (final IllegalArgumentException e) {
+                LOGGER.error("Invalid url {} for HttpBulkAppender {}", url, getName());
+                return null;
+            }
+            if (maxBatchEvents <= 0 || maxBatchBytes <= 0 || maxPendingBatches <= 0 || maxInFlight <= 0
+                    || flushIntervalMillis <= 0) {
+                LOGGER.error("Batch bounds, maxPendingBatches, maxInFlight and flushIntervalMillis must be positive "
+                        + "for HttpBulkAppender {}", getName());
+                return null;
+            }
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                // batches have no disk overflow queue; SPILL would silently drop them
+                LOGGER.error("overflowPolicy SPILL is not supported by HttpBulkAppender {}, use BLOCK or DROP",
+                        getName());
+                return null;
+            }
+            Layout<? extends Serializable> layout = getLayout();
+            if (layout == null) {
+                layout = FlexJsonLayout.newBuilder()
+                        .setConfiguration(getConfiguration())
+                        .setCompact(true)
+                        .build();
+            }
+            final Map<String, String> headerMap = new LinkedHashMap<>();
+            if (headers != null) {
+                for (final Property header : headers) {
+                    headerMap.put(header.getName(), header.getValue());
+                }
+            }
+
+            final BulkMetrics metrics = new BulkMetrics();
+            final HttpBulkSender sender = new HttpBulkSender(getName(), uri, contentType, headerMap, bulkAction,
+                    maxBatchEvents, maxBatchBytes, flushIntervalMillis, gzip, maxPendingBatches, overflowPolicy,
+                    maxInFlight, maxRetries, retryDelayMillis, connectTimeoutMillis, requestTimeoutMillis, metrics);
+            return new HttpBulkAppender(getName(), getFilter(), layout, isIgnoreExceptions(), getPropertyArray(),
+                    sender, metrics);
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public B setUrl(final String url) {
+            this.url = url;
+            return asBuilder();
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public B setContentType(final String contentType) {
+            this.contentType = contentType;
+            return asBuilder();
+        }
+
+        public String getBulkAction() {
+            return bulkAction;
+        }
+
+        /**
+         * Line written before every event, e.g. {@code {"index":{}}} for an Elasticsearch _bulk endpoint (optional).
+         *
+         * @return this builder
+         */
+        public B setBulkAction(final String bulkAction) {
+            this.bulkAction = bulkAction;
+            return asBuilder();
+        }
+
+        public int getMaxBatchEvents() {
+            return maxBatchEvents;
+        }
+
+        public B setMaxBatchEvents(final int maxBatchEvents) {
+            this.maxBatchEvents = maxBatchEvents;
+            return asBuilder();
+        }
+
+        public int getMaxBatchBytes() {
+            return maxBatchBytes;
+        }
+
+        /**
+         * Uncompressed body size at which a batch is sent (optional, defaults to 5 MiB).
+         *
+         * @return this builder
+         */
+        public B setMaxBatchBytes(final int maxBatchBytes) {
+            this.maxBatchBytes = maxBatchBytes;
+            return asBuilder();
+        }
+
+        public long getFlushIntervalMillis() {
+            return flushIntervalMillis;
+        }
+
+        /**
+         * Maximum time an event waits in an incomplete batch (optional, defaults to 1000).
+         *
+         * @return this builder
+         */
+        public B setFlushIntervalMillis(final long flushIntervalMillis) {
+            this.flushIntervalMillis = flushIntervalMillis;
+            return asBuilder();
+        }
+
+        public boolean isGzip() {
+            return gzip;
+        }
+
+        /**
+         * Whether to gzip request bodies and send {@code Content-Encoding: gzip} (optional, defaults to false).
+         *
+         * @return this builder
+         */
+        public B setGzip(final boolean gzip) {
+            this.gzip = gzip;
+            return asBuilder();
+        }
+
+        public int getMaxPendingBatches() {
+            return maxPendingBatches;
+        }
+
+        /**
+         * Number of complete batches that may wait for a free request slot before overflowPolicy applies.
+         *
+         * @return this builder
+         */
+        public B setMaxPendingBatches(final int maxPendingBatches) {
+            this.maxPendingBatches = maxPendingBatches;
+            return asBuilder();
+        }
+
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        /**
+         * What to do with a complete batch when maxPendingBatches are waiting: BLOCK or DROP; SPILL is not
+         * supported (optional, defaults to BLOCK).
+         *
+         * @return this builder
+         */
+        public B setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return asBuilder();
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        /**
+         * Maximum number of concurrent requests, including ones waiting to be retried (optional, defaults to 4).
+         *
+         * @return this builder
+         */
+        public B setMaxInFlight(final int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return asBuilder();
+        }
+
+        public int getMaxRetries() {
+            return maxRetries;
+        }
+
+        /**
+         * Retries for transport errors, 408, 429 and 5xx responses before a batch is dropped.
+         *
+         * @return this builder
+         */
+        public B setMaxRetries(final int maxRetries) {
+            this.maxRetries = maxRetries;
+            return asBuilder();
+        }
+
+        public long getRetryDelayMillis() {
+            return retryDelayMillis;
+        }
+
+        /**
+         * Delay before the first retry; doubled for every following one.
+         *
+         * @return this builder
+         */
+        public B setRetryDelayMillis(final long retryDelayMillis) {
+            this.retryDelayMillis = retryDelayMillis;
+            return asBuilder();
+        }
+
+        public long getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        public B setConnectTimeoutMillis(final long connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return asBuilder();
+        }
+
+        public long getRequestTimeoutMillis() {
+            return requestTimeoutMillis;
+        }
+
+        public B setRequestTimeoutMillis(final long requestTimeoutMillis) {
+            this.requestTimeoutMillis = requestTimeoutMillis;
+            return asBuilder();
+        }
+
+        public Property[] getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Additional request headers, e.g. Authorization.
+         *
+         * @return this builder
+         */
+        public B setHeaders(final Property[] headers) {
+            this.headers = headers;
+            return asBuilder();
+        }
+    }
+}
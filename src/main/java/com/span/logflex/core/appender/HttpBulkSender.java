@@ -0,0 +1,349 @@
+package com.span.logflex.core.appender;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Accumulates encoded events into NDJSON batches bounded by event count, size and age, and posts them
+ * with at most {@code maxInFlight} concurrent requests, retrying failed ones with exponential backoff.
+ * <p>
+ * The dispatcher thread seals a batch that has reached its age itself, so no timer ever waits on the pending
+ * queue, and retries are scheduled on their own thread, which only hands requests to the HTTP client and never
+ * blocks. A full queue under {@link OverflowPolicy#BLOCK} therefore holds back the logging threads only, while
+ * retries keep draining the in-flight requests.
+ */
+final class HttpBulkSender implements Runnable {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final long POLL_MILLIS = 100;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final URI uri;
+    private final String contentType;
+    private final Map<String, String> headers;
+    private final byte[] bulkAction;
+    private final int maxBatchEvents;
+    private final int maxBatchBytes;
+    private final long flushIntervalMillis;
+    private final boolean gzip;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final Duration requestTimeout;
+    private final OverflowPolicy overflowPolicy;
+    private final BulkMetrics metrics;
+
+    private final Object lock = new Object();
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+    private int events;
+    private long firstEventNanos;
+
+    private final BlockingQueue<Batch> pending;
+    private final Semaphore inFlight;
+    private final HttpClient client;
+    private final ScheduledExecutorService retryScheduler;
+    private final Thread dispatcher;
+    private volatile boolean running;
+
+    HttpBulkSender(final String name,
+                   final URI uri,
+                   final String contentType,
+                   final Map<String, String> headers,
+                   final String bulkAction,
+                   final int maxBatchEvents,
+                   final int maxBatchBytes,
+                   final long flushIntervalMillis,
+                   final boolean gzip,
+                   final int maxPendingBatches,
+                   final OverflowPolicy overflowPolicy,
+                   final int maxInFlight,
+                   final int maxRetries,
+                   final long retryDelayMillis,
+                   final long connectTimeoutMillis,
+                   final long requestTimeoutMillis,
+                   final BulkMetrics metrics) {
+        this.uri = uri;
+        this.contentType = contentType;
+        this.headers = headers;
+        this.bulkAction = bulkAction == null || bulkAction.isEmpty() ? null : (bulkAction + '\n').getBytes(StandardCharsets.UTF_8);
+        this.maxBatchEvents = maxBatchEvents;
+        this.maxBatchBytes = maxBatchBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.gzip = gzip;
+        this.maxInFlight = maxInFlight;
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.overflowPolicy = overflowPolicy;
+        this.metrics = metrics;
+        this.pending = new ArrayBlockingQueue<>(maxPendingBatches);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                Log4jThreadFactory.createDaemonThreadFactory("HttpBulk-" + name + "-Retry"));
+        this.dispatcher = Log4jThreadFactory.createDaemonThreadFactory("HttpBulk-" + name).newThread(this);
+    }
+
+    void start() {
+        running = true;
+        dispatcher.start();
+    }
+
+    /**
+     * Adds one encoded event to the current batch, handing the batch off when it reaches its size bounds.
+     */
+    void append(final byte[] event) {
+        final int length = Framing.payloadLength(event);
+        if (length == 0) {
+            return;
+        }
+
+        Batch sealed = null;
+        synchronized (lock) {
+            if (events == 0) {
+                firstEventNanos = System.nanoTime();
+            }
+            if (bulkAction != null) {
+                put(bulkAction, bulkAction.length);
+            }
+            put(event, length);
+            ensureCapacity(1);
+            buffer[size++] = '\n';
+            events++;
+            if (events >= maxBatchEvents || size >= maxBatchBytes) {
+                sealed = seal();
+            }
+        }
+        metrics.eventsBatched.increment();
+        if (sealed != null) {
+            enqueue(sealed);
+        }
+    }
+
+    /**
+     * Hands off whatever has been collected so far, regardless of the size bounds.
+     */
+    void flush() {
+        final Batch sealed;
+        synchronized (lock) {
+            sealed = events > 0 ? seal() : null;
+        }
+        if (sealed != null) {
+            enqueue(sealed);
+        }
+    }
+
+    /**
+     * Flushes the current batch and waits until queued and in-flight requests complete.
+     *
+     * @return false if requests were still outstanding when the timeout elapsed
+     */
+    boolean stop(final long timeout, final TimeUnit timeUnit) {
+        flush();
+        running = false;
+        final long timeoutMillis = timeout > 0 ? timeUnit.toMillis(timeout) : Long.MAX_VALUE;
+        boolean stopped = true;
+        try {
+            dispatcher.join(timeout > 0 ? timeoutMillis : 0);
+            stopped = !dispatcher.isAlive()
+                    && inFlight.tryAcquire(maxInFlight, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = false;
+        }
+        if (!stopped) {
+            dispatcher.interrupt();
+            LOGGER.warn("Requests to {} still outstanding at shutdown", uri);
+        }
+        retryScheduler.shutdownNow();
+        return stopped;
+    }
+
+    @Override
+    public void run() {
+        final long pollMillis = Math.min(POLL_MILLIS, flushIntervalMillis);
+        while (running || !pending.isEmpty()) {
+            Batch batch;
+            try {
+                batch = pending.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    // sent from here rather than queued, so an idle dispatcher never waits on its own queue
+                    batch = sealIfDue();
+                    if (batch == null) {
+                        continue;
+                    }
+                }
+                inFlight.acquire();
+            } catch (final InterruptedException e) {
+                break;
+            }
+            send(batch, 0);
+        }
+    }
+
+    private Batch sealIfDue() {
+        synchronized (lock) {
+            if (events == 0
+                    || System.nanoTime() - firstEventNanos < TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis)) {
+                return null;
+            }
+            return seal();
+        }
+    }
+
+    private void put(final byte[] bytes, final int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, 0, buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(final int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+
+    private Batch seal() {
+        final Batch batch = new Batch(buffer, size, events);
+        buffer = new byte[Math.min(Math.max(INITIAL_CAPACITY, size), maxBatchBytes + INITIAL_CAPACITY)];
+        size = 0;
+        events = 0;
+        return batch;
+    }
+
+    private void enqueue(final Batch batch) {
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                pending.put(batch);
+                return;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (pending.offer(batch)) {
+            return;
+        }
+        drop(batch);
+    }
+
+    private void send(final Batch batch, final int attempt) {
+        try {
+            batch.prepareBody(gzip);
+        } catch (final IOException e) {
+            LOGGER.error("Unable to compress batch for {}", uri, e);
+            drop(batch);
+            inFlight.release();
+            return;
+        }
+
+        final HttpRequest request;
+        try {
+            final HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                    .timeout(requestTimeout)
+                    .header("Content-Type", contentType)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(batch.body, 0, batch.bodyLength));
+            if (gzip) {
+                builder.header("Content-Encoding", "gzip");
+            }
+            headers.forEach(builder::header);
+            request = builder.build();
+        } catch (final IllegalArgumentException e) {
+            LOGGER.error("Invalid request for {}: {}", uri, e.getMessage());
+            drop(batch);
+            inFlight.release();
+            return;
+        }
+
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    final int status = response != null ? response.statusCode() : -1;
+                    if (error == null && status / 100 == 2) {
+                        metrics.batchesSent.increment();
+                        metrics.eventsSent.add(batch.events);
+                        metrics.bytesUncompressed.add(batch.size);
+                        metrics.bytesSent.add(batch.bodyLength);
+                        inFlight.release();
+                    } else if (isRetryable(status) && attempt < maxRetries && !retryScheduler.isShutdown()) {
+                        metrics.retries.increment();
+                        final long delay = retryDelayMillis << Math.min(attempt, 16);
+                        LOGGER.debug("Retrying batch for {} in {} ms after {}", uri, delay,
+                                error != null ? error.toString() : "HTTP " + status);
+                        try {
+                            retryScheduler.schedule(() -> send(batch, attempt + 1), delay, TimeUnit.MILLISECONDS);
+                        } catch (final RuntimeException e) {
+                            drop(batch);
+                            inFlight.release();
+                        }
+                    } else {
+                        LOGGER.error("Dropping batch of {} events for {} after {} attempts: {}", batch.events, uri,
+                                attempt + 1, error != null ? error.toString() : "HTTP " + status);
+                        drop(batch);
+                        inFlight.release();
+                    }
+                });
+    }
+
+    private static boolean isRetryable(final int status) {
+        // -1 is a transport error
+        return status == -1 || status == 408 || status == 429 || status / 100 == 5;
+    }
+
+    private void drop(final Batch batch) {
+        metrics.batchesDropped.increment();
+        metrics.eventsDropped.add(batch.events);
+    }
+
+    private static final class Batch {
+        final byte[] buffer;
+        final int size;
+        final int events;
+        byte[] body;
+        int bodyLength;
+
+        Batch(final byte[] buffer, final int size, final int events) {
+            this.buffer = buffer;
+            this.size = size;
+            this.events = events;
+        }
+
+        /**
+         * Builds the request body once; retries reuse it. Compression runs here, on the dispatcher thread.
+         */
+        void prepareBody(final boolean gzip) throws IOException {
+            if (body != null) {
+                return;
+            }
+            if (gzip) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(size / 8, 512));
+                try (GZIPOutputStream zip = new GZIPOutputStream(out, 8192)) {
+                    zip.write(buffer, 0, size);
+                }
+                body = out.toByteArray();
+                bodyLength = body.length;
+            } else {
+                body = buffer;
+                bodyLength = size;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.span.logflex.core.appender;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Layout shared by the sidecar index files: an 8-byte header (a magic number and a version) followed by
+ * fixed-size big-endian entries.
+ */
+final class IndexFiles {
+    static final int HEADER_SIZE = 8;
+
+    private IndexFiles() {
+    }
+
+    static ByteBuffer header(final int magic, final int version) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(magic).putInt(version).flip();
+    }
+
+    /**
+     * Reads every complete entry of an index file after checking its header; a trailing partial entry left by
+     * a crash is ignored. The decoder is handed a buffer positioned at the start of each entry.
+     *
+     * @param kind what the file should be, for the error message when the header does not match
+     */
+    static <T> List<T> read(final Path indexFile, final int magic, final int version, final int entrySize,
+                            final String kind, final Function<ByteBuffer, T> decoder) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return Collections.emptyList();
+            }
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != magic || header.getInt(4) != version) {
+                throw new IOException("Not a " + kind + ": " + indexFile);
+            }
+            final int count = (int) ((size - HEADER_SIZE) / entrySize);
+            final ByteBuffer entries = ByteBuffer.allocate(count * entrySize);
+            readFully(channel, entries, HEADER_SIZE);
+            final List<T> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.position(i * entrySize);
+                result.add(decoder.apply(entries));
+            }
+            return result;
+        }
+    }
+
+    static void readFully(final FileChannel channel, final ByteBuffer target, final long position)
+            throws IOException {
+        long offset = position;
+        while (target.hasRemaining()) {
+            final int read = channel.read(target, offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.span.logflex.core.appender;
+
+import com.span.logflex.core.layout.FlexJsonLayout;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes layout output into memory-mapped segment files, avoiding a write syscall and a heap copy per event.
+ * <p>
+ * {@code fileName="logs/app.ndjson"} produces {@code logs/app-000000.ndjson}, {@code logs/app-000001.ndjson}
+ * and so on; each segment is preallocated to {@code segmentSize} and a new one is started when it fills up.
+ * A restart continues with the next free index. Written pages are forced to disk every
+ * {@code forceIntervalMillis} by a background thread.
+ * <p>
+ * With {@code indexEvents} or {@code indexIntervalMillis} set, every segment gets a {@link TimeLevelIndex}
+ * sidecar ({@code app-000000.ndjson.tidx}) that lets {@code LogReader} skip to the matching time and level range.
+ */
+@Plugin(
+        name = "MappedFile",
+        category = Core.CATEGORY_NAME,
+        elementType = Appender.ELEMENT_TYPE,
+        printObject = true
+)
+public final class MappedFileAppender extends AbstractAppender {
+    private final MappedSegmentManager manager;
+    private final long forceIntervalMillis;
+    private ScheduledExecutorService forceExecutor;
+
+    private MappedFileAppender(String name,
+                               Filter filter,
+                               Layout<? extends Serializable> layout,
+                               boolean ignoreExceptions,
+                               Property[] properties,
+                               MappedSegmentManager manager,
+                               long forceIntervalMillis) {
+        super(name, filter, layout, ignoreExceptions, properties);
+        this.manager = manager;
+        this.forceIntervalMillis = forceIntervalMillis;
+    }
+
+    @PluginBuilderFactory
+    public static <B extends MappedFileAppender.Builder<B>> B newBuilder() {
+        return new MappedFileAppender.Builder<B>().asBuilder();
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        manager.write(event, getLayout());
+    }
+
+    @Override
+    public void start() {
+        if (forceIntervalMillis > 0) {
+            forceExecutor = Executors.newSingleThreadScheduledExecutor(
+                    Log4jThreadFactory.createDaemonThreadFactory("MappedFile-" + getName()));
+            forceExecutor.scheduleWithFixedDelay(manager::force,
+                    forceIntervalMillis, forceIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        super.start();
+    }
+
+    @Override
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        setStopping();
+        final boolean stopped = super.stop(timeout, timeUnit, false);
+        if (forceExecutor != null) {
+            forceExecutor.shutdownNow();
+        }
+        manager.close();
+        setStopped();
+        return stopped;
+    }
+
+    /**
+     * The segment file events are currently written to.
+     */
+    public Path getCurrentSegment() {
+        return manager.getCurrentSegment();
+    }
+
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<MappedFileAppender> {
+        @PluginBuilderAttribute
+        private String fileName;
+
+        @PluginBuilderAttribute
+        private int segmentSize = 32 * 1024 * 1024;
+
+        @PluginBuilderAttribute
+        private long forceIntervalMillis = 1000;
+
+        @PluginBuilderAttribute
+        private int indexEvents;
+
+        @PluginBuilderAttribute
+        private long indexIntervalMillis;
+
+        @Override
+        public MappedFileAppender build() {
+            if (fileName == null) {
+                LOGGER.error("No fileName provided for MappedFileAppender {}", getName());
+                return null;
+            }
+            Layout<? extends Serializable> layout = getLayout();
+            if (layout == null) {
+                layout = FlexJsonLayout.newBuilder()
+                        .setConfiguration(getConfiguration())
+                        .setCompact(true)
+                        .setEventEol(true)
+                        .build();
+            }
+            final MappedSegmentManager manager;
+            try {
+                manager = new MappedSegmentManager(Paths.get(fileName), segmentSize,
+                        layout.getHeader(), layout.getFooter(), indexEvents, indexIntervalMillis);
+            } catch (final IOException | IllegalArgumentException e) {
+                LOGGER.error("Unable to open {} for MappedFileAppender {}: {}", fileName, getName(), e.getMessage());
+                return null;
+            }
+            return new MappedFileAppender(getName(), getFilter(), layout, isIgnoreExceptions(), getPropertyArray(),
+                    manager, forceIntervalMillis);
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Base name of the segment files; the segment index is inserted before the extension.
+         *
+         * @return this builder
+         */
+        public B setFileName(final String fileName) {
+            this.fileName = fileName;
+            return asBuilder();
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        /**
+         * Size each segment file is preallocated and mapped to (optional, defaults to 32 MiB).
+         *
+         * @return this builder
+         */
+        public B setSegmentSize(final int segmentSize) {
+            this.segmentSize = segmentSize;
+            return asBuilder();
+        }
+
+        public long getForceIntervalMillis() {
+            return forceIntervalMillis;
+        }
+
+        /**
+         * How often written pages are forced to the storage device; 0 leaves it to the OS (optional, defaults to 1000).
+         *
+         * @return this builder
+         */
+        public B setForceIntervalMillis(final long forceIntervalMillis) {
+            this.forceIntervalMillis = forceIntervalMillis;
+            return asBuilder();
+        }
+
+        public int getIndexEvents() {
+            return indexEvents;
+        }
+
+        /**
+         * Closes an index entry every this many events; 0 disables the count limit (optional, defaults to 0).
+         *
+         * @return this builder
+         */
+        public B setIndexEvents(final int indexEvents) {
+            this.indexEvents = indexEvents;
+            return asBuilder();
+        }
+
+        public long getIndexIntervalMillis() {
+            return indexIntervalMillis;
+        }
+
+        /**
+         * Closes an index entry once its events span this long; 0 disables the time limit (optional, defaults to 0).
+         * No index is written while both limits are 0.
+         *
+         * @return this builder
+         */
+        public B setIndexIntervalMillis(final long indexIntervalMillis) {
+            this.indexIntervalMillis = indexIntervalMillis;
+            return asBuilder();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.span.logflex.core.appender;
+
+import com.span.logflex.core.layout.FlexJsonLayout;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes encoded events into preallocated, memory-mapped segment files named {@code <base>-<n><ext>}.
+ * <p>
+ * The layout encodes directly into the mapped region. When an event does not fit in the rest of a segment,
+ * the part already encoded is moved to the next segment so that no event is split across files. An event that
+ * does not fit in an empty segment either is dropped with an error. Every segment gets the layout header and
+ * footer; space for the footer is reserved up front. A closed segment is truncated to the bytes actually
+ * written.
+ * <p>
+ * {@link #force()} flushes the mapping outside the lock that writers take, so a slow msync does not hold up
+ * logging threads; only closing a segment waits for it.
+ * <p>
+ * When indexing is enabled each segment also gets a {@link TimeLevelIndex} sidecar.
+ */
+final class MappedSegmentManager implements ByteBufferDestination {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final byte[] EMPTY = {};
+
+    private final Path directory;
+    private final String baseName;
+    private final String extension;
+    private final int segmentSize;
+    private final byte[] header;
+    private final byte[] footer;
+    private final int indexEvents;
+    private final long indexIntervalMillis;
+    private final Object forceLock = new Object();
+
+    private int segmentIndex;
+    private Path segmentPath;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private TimeLevelIndexWriter indexWriter;
+    private int dataStart;
+    private int eventStart;
+    private int forcedUpTo;
+    private boolean segmentHasEvents;
+    private boolean oversized;
+
+    // the mapping force() may still flush, guarded by forceLock; cleared before its file is truncated
+    private MappedByteBuffer forceTarget;
+
+    /**
+     * @param indexEvents         events per index entry, or 0
+     * @param indexIntervalMillis time span per index entry, or 0; no index is written if both are 0
+     */
+    MappedSegmentManager(final Path file, final int segmentSize, final byte[] header, final byte[] footer,
+                         final int indexEvents, final long indexIntervalMillis) throws IOException {
+        final Path absolute = file.toAbsolutePath();
+        final String name = absolute.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        this.directory = absolute.getParent();
+        this.baseName = dot > 0 ? name.substring(0, dot) : name;
+        this.extension = dot > 0 ? name.substring(dot) : "";
+        this.segmentSize = segmentSize;
+        this.header = header != null ? header : EMPTY;
+        this.footer = footer != null ? footer : EMPTY;
+        this.indexEvents = indexEvents;
+        this.indexIntervalMillis = indexIntervalMillis;
+        if (this.header.length + this.footer.length >= segmentSize) {
+            throw new IllegalArgumentException("segmentSize is too small for the layout header and footer");
+        }
+        Files.createDirectories(directory);
+        openSegment(lastSegmentIndex() + 1);
+    }
+
+    /**
+     * Encodes one event into the current segment, or the events a FlexJsonLayout flight recorder dumps before
+     * it, each indexed under its own time and level.
+     */
+    synchronized void write(final LogEvent event, final Layout<?> layout) {
+        for (final LogEvent each : FlexJsonLayout.eventsToWrite(layout, event)) {
+            writeEvent(each, layout);
+        }
+    }
+
+    private void writeEvent(final LogEvent event, final Layout<?> layout) {
+        if (mapped == null) {
+            return;
+        }
+        eventStart = mapped.position();
+        try {
+            layout.encode(event, this);
+        } catch (final RuntimeException e) {
+            // drop the partially encoded event
+            mapped.position(eventStart);
+            oversized = false;
+            throw e;
+        }
+        if (oversized) {
+            mapped.position(eventStart);
+            oversized = false;
+            LOGGER.error("Dropping event that does not fit in a {} byte segment of {}", segmentSize, segmentPath);
+            return;
+        }
+        if (mapped.position() == eventStart) {
+            // the layout held the event back
+            return;
+        }
+        if (!segmentHasEvents) {
+            dropLeadingSeparator();
+            segmentHasEvents = true;
+        }
+        if (indexWriter != null) {
+            indexWriter.add(eventStart, mapped.position(), event.getTimeMillis(), event.getLevel().intLevel());
+        }
+    }
+
+    /**
+     * Flushes the part of the current segment written since the last call to the storage device.
+     */
+    void force() {
+        final MappedByteBuffer buffer;
+        final int from;
+        final int to;
+        synchronized (this) {
+            if (mapped == null) {
+                return;
+            }
+            buffer = mapped;
+            from = forcedUpTo;
+            to = mapped.position();
+            forcedUpTo = to;
+            if (indexWriter != null) {
+                indexWriter.flush();
+            }
+        }
+        if (to > from) {
+            synchronized (forceLock) {
+                if (buffer == forceTarget) {
+                    buffer.force(from, to - from);
+                }
+            }
+        }
+    }
+
+    synchronized void close() {
+        if (mapped != null) {
+            closeSegment(channel, mapped, indexWriter, segmentPath, mapped.position());
+            mapped = null;
+        }
+    }
+
+    synchronized Path getCurrentSegment() {
+        return segmentPath;
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return mapped;
+    }
+
+    /**
+     * Called by the encoder when the segment is full: rolls over, carrying the partially encoded event along.
+     */
+    @Override
+    public synchronized ByteBuffer drain(final ByteBuffer buf) {
+        if (eventStart == dataStart) {
+            // the event will not fit in any segment; let the encoder run on over the same space and drop it
+            oversized = true;
+            mapped.position(dataStart);
+            return mapped;
+        }
+        final int end = mapped.position();
+        final byte[] carry = new byte[end - eventStart];
+        mapped.get(eventStart, carry);
+
+        final FileChannel previousChannel = channel;
+        final MappedByteBuffer previous = mapped;
+        final TimeLevelIndexWriter previousIndex = indexWriter;
+        final Path previousPath = segmentPath;
+        try {
+            openSegment(segmentIndex + 1);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Unable to roll over to " + segmentPath(segmentIndex + 1), e);
+        }
+        closeSegment(previousChannel, previous, previousIndex, previousPath, eventStart);
+        mapped.put(carry);
+        eventStart = dataStart;
+        return mapped;
+    }
+
+    @Override
+    public void writeBytes(final ByteBuffer data) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+    }
+
+    @Override
+    public void writeBytes(final byte[] data, final int offset, final int length) {
+        ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+    }
+
+    /**
+     * In complete mode the layout prefixes every event but its first with ", ", which is wrong for the first
+     * event of a segment that opens with its own header.
+     */
+    private void dropLeadingSeparator() {
+        if (header.length == 0) {
+            return;
+        }
+        final int end = mapped.position();
+        if (end - dataStart >= 2 && mapped.get(dataStart) == ',' && mapped.get(dataStart + 1) == ' ') {
+            final byte[] event = new byte[end - dataStart - 2];
+            mapped.get(dataStart + 2, event);
+            mapped.put(dataStart, event);
+            mapped.position(end - 2);
+        }
+    }
+
+    private void openSegment(final int index) throws IOException {
+        final Path path = segmentPath(index);
+        final FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer;
+        final TimeLevelIndexWriter writer;
+        try {
+            buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            writer = indexEvents > 0 || indexIntervalMillis > 0
+                    ? new TimeLevelIndexWriter(TimeLevelIndex.indexFileFor(path), indexEvents, indexIntervalMillis)
+                    : null;
+        } catch (final IOException e) {
+            file.close();
+            throw e;
+        }
+        buffer.limit(segmentSize - footer.length);
+        buffer.put(header);
+
+        segmentIndex = index;
+        segmentPath = path;
+        channel = file;
+        mapped = buffer;
+        indexWriter = writer;
+        dataStart = buffer.position();
+        forcedUpTo = 0;
+        segmentHasEvents = false;
+        synchronized (forceLock) {
+            forceTarget = buffer;
+        }
+    }
+
+    private void closeSegment(final FileChannel file, final MappedByteBuffer buffer,
+                              final TimeLevelIndexWriter writer, final Path path, final int end) {
+        if (writer != null) {
+            writer.close();
+        }
+        buffer.limit(segmentSize);
+        buffer.position(end);
+        buffer.put(footer);
+        final int length = buffer.position();
+        synchronized (forceLock) {
+            if (forceTarget == buffer) {
+                forceTarget = null;
+            }
+        }
+        try {
+            buffer.force();
+            // the mapping is never touched again, so shrinking the file under it is safe
+            file.truncate(length);
+            file.close();
+        } catch (final IOException e) {
+            LOGGER.error("Unable to close segment {}: {}", path, e.getMessage());
+        }
+    }
+
+    private int lastSegmentIndex() throws IOException {
+        int last = -1;
+        final String prefix = baseName + '-';
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + extension)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                try {
+                    last = Math.max(last,
+                            Integer.parseInt(name.substring(prefix.length(), name.length() - extension.length())));
+                } catch (final NumberFormatException | IndexOutOfBoundsException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return last;
+    }
+
+    private Path segmentPath(final int index) {
+        return directory.resolve(String.format("%s-%06d%s", baseName, index, extension));
+    }
+}
@@ -0,0 +1,354 @@
+package com.span.logflex.core.appender;
+
+import com.span.logflex.core.buffer.DiskOverflowQueue;
+import com.span.logflex.core.layout.FlexJsonLayout;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ships layout output to a TCP collector without doing any socket I/O on the logging thread.
+ * <p>
+ * Events are encoded on the calling thread, queued in a bounded in-memory queue and written by a
+ * background thread in batches with a single gathering write. When the queue is full the event is
+ * dropped, the caller blocks, or the event is spilled to a {@link DiskOverflowQueue}, depending on
+ * {@link OverflowPolicy}.
+ */
+@Plugin(
+        name = "NioSocket",
+        category = Core.CATEGORY_NAME,
+        elementType = Appender.ELEMENT_TYPE,
+        printObject = true
+)
+public final class NioSocketAppender extends AbstractAppender {
+    private final BlockingQueue<byte[]> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final NioSocketSender sender;
+    private final LongAdder droppedEvents = new LongAdder();
+
+    private NioSocketAppender(String name,
+                              Filter filter,
+                              Layout<? extends Serializable> layout,
+                              boolean ignoreExceptions,
+                              Property[] properties,
+                              String host,
+                              int port,
+                              Framing framing,
+                              int queueSize,
+                              OverflowPolicy overflowPolicy,
+                              DiskOverflowQueue overflow,
+                              int maxBatchSize,
+                              long connectTimeoutMillis,
+                              long reconnectDelayMillis,
+                              long maxReconnectDelayMillis) {
+        super(name, filter, layout, ignoreExceptions, properties);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.overflowPolicy = overflowPolicy;
+        this.sender = new NioSocketSender(name, host, port, queue, overflow, framing, maxBatchSize,
+                connectTimeoutMillis, reconnectDelayMillis, maxReconnectDelayMillis);
+    }
+
+    @PluginBuilderFactory
+    public static <B extends NioSocketAppender.Builder<B>> B newBuilder() {
+        return new NioSocketAppender.Builder<B>().asBuilder();
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        // a dump goes out one frame per event
+        for (final LogEvent each : FlexJsonLayout.eventsToWrite(getLayout(), event)) {
+            send(each);
+        }
+    }
+
+    private void send(final LogEvent event) {
+        final byte[] bytes = getLayout().toByteArray(event);
+        if (Framing.payloadLength(bytes) == 0) {
+            return;
+        }
+
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                queue.put(bytes);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedEvents.increment();
+            }
+        } else if (!sender.offer(bytes)) {
+            droppedEvents.increment();
+        }
+    }
+
+    @Override
+    public void start() {
+        sender.start();
+        super.start();
+    }
+
+    @Override
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = super.stop(timeout, timeUnit, false);
+        stopped &= sender.stop(timeout, timeUnit);
+        setStopped();
+        return stopped;
+    }
+
+    /**
+     * Number of events discarded because the queue (or the overflow queue) was full or the sender was interrupted.
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * Number of encoded events waiting to be sent.
+     */
+    public int getQueuedEvents() {
+        return queue.size();
+    }
+
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<NioSocketAppender> {
+        @PluginBuilderAttribute
+        private String host = "localhost";
+
+        @PluginBuilderAttribute
+        private int port;
+
+        @PluginBuilderAttribute
+        private Framing framing = Framing.NEWLINE;
+
+        @PluginBuilderAttribute
+        private int queueSize = 8192;
+
+        @PluginBuilderAttribute
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+        @PluginBuilderAttribute
+        private String spillDirectory;
+
+        @PluginBuilderAttribute
+        private int spillSegmentSize = 64 * 1024 * 1024;
+
+        @PluginBuilderAttribute
+        private int spillMaxSegments = 16;
+
+        @PluginBuilderAttribute
+        private int maxBatchSize = 256;
+
+        @PluginBuilderAttribute
+        private long connectTimeoutMillis = 5000;
+
+        @PluginBuilderAttribute
+        private long reconnectDelayMillis = 1000;
+
+        @PluginBuilderAttribute
+        private long maxReconnectDelayMillis = 30000;
+
+        @Override
+        public NioSocketAppender build() {
+            if (port <= 0) {
+                LOGGER.error("No valid port provided for NioSocketAppender {}", getName());
+                return null;
+            }
+            if (queueSize <= 0 || maxBatchSize <= 0) {
+                LOGGER.error("queueSize and maxBatchSize must be positive for NioSocketAppender {}", getName());
+                return null;
+            }
+            DiskOverflowQueue overflow = null;
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                if (spillDirectory == null) {
+                    LOGGER.error("spillDirectory is required with overflowPolicy SPILL for NioSocketAppender {}",
+                            getName());
+                    return null;
+                }
+                try {
+                    overflow = new DiskOverflowQueue(Paths.get(spillDirectory), spillSegmentSize, spillMaxSegments);
+                } catch (final IOException | IllegalArgumentException e) {
+                    LOGGER.error("Unable to open overflow queue {} for NioSocketAppender {}: {}",
+                            spillDirectory, getName(), e.getMessage());
+                    return null;
+                }
+            }
+            Layout<? extends Serializable> layout = getLayout();
+            if (layout == null) {
+                layout = FlexJsonLayout.newBuilder()
+                        .setConfiguration(getConfiguration())
+                        .setCompact(true)
+                        .build();
+            }
+            return new NioSocketAppender(getName(), getFilter(), layout, isIgnoreExceptions(), getPropertyArray(),
+                    host, port, framing, queueSize, overflowPolicy, overflow, maxBatchSize,
+                    connectTimeoutMillis, reconnectDelayMillis, maxReconnectDelayMillis);
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public B setHost(final String host) {
+            this.host = host;
+            return asBuilder();
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public B setPort(final int port) {
+            this.port = port;
+            return asBuilder();
+        }
+
+        public Framing getFraming() {
+            return framing;
+        }
+
+        /**
+         * How events are delimited on the wire (optional, defaults to NEWLINE).
+         *
+         * @return this builder
+         */
+        public B setFraming(final Framing framing) {
+            this.framing = framing;
+            return asBuilder();
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        /**
+         * Maximum number of encoded events held in memory while the collector is slow or unreachable.
+         *
+         * @return this builder
+         */
+        public B setQueueSize(final int queueSize) {
+            this.queueSize = queueSize;
+            return asBuilder();
+        }
+
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        /**
+         * What to do when the queue is full (optional, defaults to BLOCK).
+         *
+         * @return this builder
+         */
+        public B setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return asBuilder();
+        }
+
+        public String getSpillDirectory() {
+            return spillDirectory;
+        }
+
+        /**
+         * Directory of the disk overflow queue used with overflowPolicy SPILL; unsent events survive restarts there.
+         *
+         * @return this builder
+         */
+        public B setSpillDirectory(final String spillDirectory) {
+            this.spillDirectory = spillDirectory;
+            return asBuilder();
+        }
+
+        public int getSpillSegmentSize() {
+            return spillSegmentSize;
+        }
+
+        /**
+         * Size of each overflow segment file (optional, defaults to 64 MiB).
+         *
+         * @return this builder
+         */
+        public B setSpillSegmentSize(final int spillSegmentSize) {
+            this.spillSegmentSize = spillSegmentSize;
+            return asBuilder();
+        }
+
+        public int getSpillMaxSegments() {
+            return spillMaxSegments;
+        }
+
+        /**
+         * Number of overflow segments kept before events are dropped (optional, defaults to 16).
+         *
+         * @return this builder
+         */
+        public B setSpillMaxSegments(final int spillMaxSegments) {
+            this.spillMaxSegments = spillMaxSegments;
+            return asBuilder();
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        /**
+         * Maximum number of events written with one gathering write.
+         *
+         * @return this builder
+         */
+        public B setMaxBatchSize(final int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return asBuilder();
+        }
+
+        public long getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        /**
+         * Timeout for connecting and for a stalled write before the connection is dropped and re-established.
+         *
+         * @return this builder
+         */
+        public B setConnectTimeoutMillis(final long connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return asBuilder();
+        }
+
+        public long getReconnectDelayMillis() {
+            return reconnectDelayMillis;
+        }
+
+        /**
+         * Initial delay before reconnecting; doubled after each failed attempt up to maxReconnectDelayMillis.
+         *
+         * @return this builder
+         */
+        public B setReconnectDelayMillis(final long reconnectDelayMillis) {
+            this.reconnectDelayMillis = reconnectDelayMillis;
+            return asBuilder();
+        }
+
+        public long getMaxReconnectDelayMillis() {
+            return maxReconnectDelayMillis;
+        }
+
+        public B setMaxReconnectDelayMillis(final long maxReconnectDelayMillis) {
+            this.maxReconnectDelayMillis = maxReconnectDelayMillis;
+            return asBuilder();
+        }
+    }
+}
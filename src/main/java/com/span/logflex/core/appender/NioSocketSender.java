@@ -0,0 +1,374 @@
+package com.span.logflex.core.appender;
+
+import com.span.logflex.core.buffer.DiskOverflowQueue;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread that drains encoded events from a queue and ships them over a non-blocking
+ * {@link SocketChannel} with gathering writes, reconnecting with exponential backoff.
+ * <p>
+ * With an overflow queue, events that do not fit in memory go to disk. Once anything has spilled, every
+ * following event is spilled as well until the disk queue is drained, so delivery order is preserved.
+ * Events read back from disk are checkpointed only after they have been written to the socket, and at most
+ * once a second so the checkpoint file is not forced for every batch; after a crash the events sent since the
+ * last checkpoint are sent again. Whatever is still pending when the thread exits, for whatever reason, goes
+ * back to disk for the next start.
+ * <p>
+ * Delivery is at-least-once per event, never per batch: when a write fails, the events that went out
+ * completely are dropped from the batch and only the rest is sent again on the next connection. The event
+ * the connection broke in is resent whole, since the peer discards the partial frame with the old
+ * connection; it is duplicated only if the peer had in fact received all of it.
+ */
+final class NioSocketSender implements Runnable {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final long POLL_MILLIS = 100;
+    private static final long CHECKPOINT_MILLIS = 1000;
+
+    private final String host;
+    private final int port;
+    private final BlockingQueue<byte[]> queue;
+    private final DiskOverflowQueue overflow;
+    private final Framing framing;
+    private final int maxBatchSize;
+    private final long connectTimeoutMillis;
+    private final long reconnectDelayMillis;
+    private final long maxReconnectDelayMillis;
+    private final List<byte[]> batch;
+    private final ByteBuffer[] buffers;
+    private final ByteBuffer[] frames;
+    private final ByteBuffer scratch = ByteBuffer.allocate(256);
+    private final Thread thread;
+    private volatile boolean running;
+    private boolean spilling;
+    private boolean batchFromOverflow;
+    private long lastCheckpointNanos = System.nanoTime();
+    private SocketChannel channel;
+    private Selector selector;
+
+    NioSocketSender(final String name,
+                    final String host,
+                    final int port,
+                    final BlockingQueue<byte[]> queue,
+                    final DiskOverflowQueue overflow,
+                    final Framing framing,
+                    final int maxBatchSize,
+                    final long connectTimeoutMillis,
+                    final long reconnectDelayMillis,
+                    final long maxReconnectDelayMillis) {
+        this.host = host;
+        this.port = port;
+        this.queue = queue;
+        this.overflow = overflow;
+        this.spilling = overflow != null && !overflow.isEmpty();
+        this.framing = framing;
+        this.maxBatchSize = maxBatchSize;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.maxReconnectDelayMillis = Math.max(reconnectDelayMillis, maxReconnectDelayMillis);
+        this.batch = new ArrayList<>(maxBatchSize);
+        this.buffers = new ByteBuffer[maxBatchSize * Framing.BUFFERS_PER_EVENT];
+        this.frames = new ByteBuffer[maxBatchSize];
+        for (int i = 0; i < maxBatchSize; i++) {
+            frames[i] = ByteBuffer.allocate(Framing.FRAME_BYTES);
+        }
+        this.thread = Log4jThreadFactory.createDaemonThreadFactory("NioSocket-" + name).newThread(this);
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops accepting new work, lets the thread flush what is already queued and waits for it to finish.
+     *
+     * @return false if the thread was still running when the timeout elapsed
+     */
+    boolean stop(final long timeout, final TimeUnit timeUnit) {
+        running = false;
+        try {
+            if (timeout > 0) {
+                thread.join(timeUnit.toMillis(timeout));
+            } else {
+                thread.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            thread.interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues an event without blocking, spilling it to the overflow queue when memory is full.
+     *
+     * @return false if the event had to be dropped
+     */
+    boolean offer(final byte[] event) {
+        if (overflow == null) {
+            return queue.offer(event);
+        }
+        synchronized (overflow) {
+            if (spilling) {
+                return overflow.offer(event, 0, event.length);
+            }
+        }
+        if (queue.offer(event)) {
+            return true;
+        }
+        synchronized (overflow) {
+            spilling = true;
+            return overflow.offer(event, 0, event.length);
+        }
+    }
+
+    @Override
+    public void run() {
+        long delay = reconnectDelayMillis;
+        while (running || !batch.isEmpty() || !queue.isEmpty()) {
+            if (batch.isEmpty()) {
+                try {
+                    fillBatch();
+                } catch (final InterruptedException e) {
+                    break;
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+
+            try {
+                ensureConnected();
+                writeBatch();
+                batch.clear();
+                if (batchFromOverflow) {
+                    batchFromOverflow = false;
+                    checkpointOverflow();
+                }
+                delay = reconnectDelayMillis;
+            } catch (final IOException e) {
+                LOGGER.warn("Unable to send {} events to {}:{}: {}", batch.size(), host, port, e.getMessage());
+                closeChannel();
+                if (!running) {
+                    break;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (final InterruptedException ie) {
+                    break;
+                }
+                delay = Math.min(delay * 2, maxReconnectDelayMillis);
+            }
+        }
+        closeChannel();
+        spillPending();
+        closeOverflow();
+    }
+
+    /**
+     * Takes events from memory first; memory only holds events older than anything on disk.
+     */
+    private void fillBatch() throws InterruptedException {
+        byte[] first = queue.poll();
+        if (first == null && overflow != null) {
+            if (pollOverflow()) {
+                return;
+            }
+        }
+        if (first == null) {
+            first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (first != null) {
+            batch.add(first);
+            queue.drainTo(batch, maxBatchSize - 1);
+        }
+    }
+
+    private boolean pollOverflow() {
+        try {
+            byte[] event;
+            while (batch.size() < maxBatchSize && (event = overflow.poll()) != null) {
+                batch.add(event);
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Unable to read overflow queue: {}", e.getMessage());
+        }
+        if (batch.isEmpty()) {
+            synchronized (overflow) {
+                if (overflow.isEmpty()) {
+                    spilling = false;
+                }
+            }
+            return false;
+        }
+        batchFromOverflow = true;
+        return true;
+    }
+
+    /**
+     * Persists the read position of the overflow queue once the events polled from it have been sent.
+     */
+    private void checkpointOverflow() {
+        final long now = System.nanoTime();
+        if (!overflow.isEmpty() && now - lastCheckpointNanos < TimeUnit.MILLISECONDS.toNanos(CHECKPOINT_MILLIS)) {
+            return;
+        }
+        try {
+            overflow.checkpoint();
+            lastCheckpointNanos = now;
+        } catch (final IOException e) {
+            LOGGER.error("Unable to checkpoint overflow queue: {}", e.getMessage());
+        }
+    }
+
+    private void spillPending() {
+        if (batch.isEmpty() && queue.isEmpty()) {
+            return;
+        }
+        if (overflow == null) {
+            LOGGER.error("Discarding {} events not sent to {}:{} before shutdown",
+                    batch.size() + queue.size(), host, port);
+        } else {
+            int lost = 0;
+            if (batchFromOverflow) {
+                // still on disk behind the last checkpoint; read again on the next start
+                overflow.rewind();
+            } else {
+                // kept for the next start; they end up behind anything already on disk
+                for (final byte[] event : batch) {
+                    lost += overflow.offer(event, 0, event.length) ? 0 : 1;
+                }
+            }
+            byte[] event;
+            while ((event = queue.poll()) != null) {
+                lost += overflow.offer(event, 0, event.length) ? 0 : 1;
+            }
+            if (lost > 0) {
+                LOGGER.error("Discarding {} events not sent to {}:{} before shutdown", lost, host, port);
+            }
+        }
+        batch.clear();
+        queue.clear();
+    }
+
+    private void closeOverflow() {
+        if (overflow != null) {
+            try {
+                overflow.close();
+            } catch (final IOException e) {
+                LOGGER.error("Unable to close overflow queue: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void ensureConnected() throws IOException {
+        if (channel != null && channel.isConnected()) {
+            if (!isClosedByPeer()) {
+                return;
+            }
+            LOGGER.debug("Connection to {}:{} closed by peer", host, port);
+            closeChannel();
+        }
+        final InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(host);
+        }
+
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+        if (!channel.connect(address)) {
+            if (selector.select(connectTimeoutMillis) == 0 || !channel.finishConnect()) {
+                throw new SocketTimeoutException("Connect to " + address + " timed out");
+            }
+            selector.selectedKeys().clear();
+        }
+        key.interestOps(SelectionKey.OP_WRITE);
+        LOGGER.debug("Connected to {}", address);
+    }
+
+    /**
+     * Collectors never talk back, so a read of end-of-stream is the only cheap way to notice that the
+     * peer went away before the next write is silently buffered by the kernel.
+     */
+    private boolean isClosedByPeer() throws IOException {
+        int read;
+        do {
+            scratch.clear();
+            read = channel.read(scratch);
+        } while (read > 0);
+        return read < 0;
+    }
+
+    private void writeBatch() throws IOException {
+        final int count = batch.size();
+        for (int i = 0; i < count; i++) {
+            final byte[] event = batch.get(i);
+            framing.frame(event, Framing.payloadLength(event), frames[i], buffers, i * Framing.BUFFERS_PER_EVENT);
+        }
+
+        final int length = count * Framing.BUFFERS_PER_EVENT;
+        int offset = 0;
+        try {
+            while (offset < length) {
+                channel.write(buffers, offset, length - offset);
+                while (offset < length && !buffers[offset].hasRemaining()) {
+                    offset++;
+                }
+                if (offset < length) {
+                    awaitWritable();
+                }
+            }
+        } catch (final IOException e) {
+            // events that went out completely are not resent; a partially written one is, on the next connection
+            batch.subList(0, offset / Framing.BUFFERS_PER_EVENT).clear();
+            throw e;
+        } finally {
+            for (int i = 0; i < length; i++) {
+                buffers[i] = null;
+            }
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        if (selector.select(connectTimeoutMillis) == 0) {
+            throw new SocketTimeoutException("Write to " + host + ":" + port + " timed out");
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private void closeChannel() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (final IOException e) {
+            LOGGER.debug("Error closing connection to {}:{}", host, port, e);
+        } finally {
+            selector = null;
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.span.logflex.core.appender;
+
+/**
+ * What an appender does with an event when its in-memory queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the event and count it as dropped.
+     */
+    DROP,
+
+    /**
+     * Block the logging thread until the queue has room.
+     */
+    BLOCK,
+
+    /**
+     * Write the event to a disk-backed overflow queue and deliver it, in order, once the sink catches up.
+     * Events are dropped only when the overflow queue itself is full.
+     */
+    SPILL
+}
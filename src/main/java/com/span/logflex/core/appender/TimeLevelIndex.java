@@ -0,0 +1,94 @@
+package com.span.logflex.core.appender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Sidecar index of a segment written by {@link MappedFileAppender}.
+ * <p>
+ * Each entry covers a run of consecutive events, closed every {@code indexEvents} events or once the events
+ * span {@code indexIntervalMillis}, and records where the run is in the segment, its time range and which
+ * levels occur in it. A reader can then skip every run that cannot match a time or level condition. The
+ * file is an 8-byte header ({@code "LFTI"}, version) followed by fixed-size big-endian entries; it may lag
+ * the segment, so bytes after the last entry must still be scanned.
+ */
+public final class TimeLevelIndex {
+    public static final String SUFFIX = ".tidx";
+    static final int MAGIC = 0x4C465449;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = IndexFiles.HEADER_SIZE;
+    static final int ENTRY_SIZE = 40;
+    private static final int MAX_LEVEL_BIT = 7;
+
+    /**
+     * One run of events.
+     *
+     * @param offset    position of the first event in the segment
+     * @param length    bytes up to the end of the last event
+     * @param events    number of events
+     * @param minMillis earliest event time
+     * @param maxMillis latest event time
+     * @param levels    bitmap of {@link #levelBit(int)} over the events
+     */
+    public record Entry(long offset, int length, int events, long minMillis, long maxMillis, int levels) {
+
+        /**
+         * Whether some event in the run may fall in {@code [fromMillis, toMillis)} with a level at least as
+         * specific as {@code intLevel}.
+         */
+        public boolean mayMatch(final long fromMillis, final long toMillis, final int intLevel) {
+            return maxMillis >= fromMillis && minMillis < toMillis && (levels & levelsUpTo(intLevel)) != 0;
+        }
+    }
+
+    private TimeLevelIndex() {
+    }
+
+    public static Path indexFileFor(final Path segment) {
+        return segment.resolveSibling(segment.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Bucket of a level in the bitmap: OFF, FATAL, ERROR, WARN, INFO, DEBUG and TRACE get one bit each,
+     * custom levels share the bit of the next more specific standard level.
+     */
+    public static int levelBit(final int intLevel) {
+        return 1 << Math.min(intLevel / 100, MAX_LEVEL_BIT);
+    }
+
+    /**
+     * Bits of every bucket that may hold a level at least as specific as {@code intLevel}.
+     */
+    public static int levelsUpTo(final int intLevel) {
+        return (levelBit(intLevel) << 1) - 1;
+    }
+
+    /**
+     * Reads every complete entry of an index file; a trailing partial entry is ignored.
+     */
+    public static List<Entry> read(final Path indexFile) throws IOException {
+        return IndexFiles.read(indexFile, MAGIC, VERSION, ENTRY_SIZE, "time/level index", TimeLevelIndex::decode);
+    }
+
+    static ByteBuffer header() {
+        return IndexFiles.header(MAGIC, VERSION);
+    }
+
+    static void encode(final long offset, final int length, final int events, final long minMillis,
+                       final long maxMillis, final int levels, final ByteBuffer target) {
+        target.putLong(offset)
+                .putInt(length)
+                .putInt(events)
+                .putLong(minMillis)
+                .putLong(maxMillis)
+                .putInt(levels)
+                .putInt(0);
+    }
+
+    private static Entry decode(final ByteBuffer entry) {
+        return new Entry(entry.getLong(), entry.getInt(), entry.getInt(), entry.getLong(), entry.getLong(),
+                entry.getInt());
+    }
+}
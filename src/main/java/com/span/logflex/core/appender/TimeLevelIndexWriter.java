@@ -0,0 +1,107 @@
+package com.span.logflex.core.appender;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Builds the {@link TimeLevelIndex} of one segment. Per event it only updates a few fields; finished entries
+ * are buffered and written out by {@link #flush()} or when the buffer fills up. Not thread-safe, the segment
+ * manager's lock covers it.
+ */
+final class TimeLevelIndexWriter {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final int BUFFERED_ENTRIES = 128;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int maxEvents;
+    private final long intervalMillis;
+    private final ByteBuffer entries = ByteBuffer.allocate(BUFFERED_ENTRIES * TimeLevelIndex.ENTRY_SIZE);
+    private long position;
+    private boolean failed;
+
+    private int start;
+    private int end;
+    private int events;
+    private long minMillis;
+    private long maxMillis;
+    private long firstMillis;
+    private int levels;
+
+    TimeLevelIndexWriter(final Path path, final int maxEvents, final long intervalMillis) throws IOException {
+        this.path = path;
+        this.maxEvents = maxEvents > 0 ? maxEvents : Integer.MAX_VALUE;
+        this.intervalMillis = intervalMillis > 0 ? intervalMillis : Long.MAX_VALUE;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        entries.put(TimeLevelIndex.header());
+    }
+
+    /**
+     * Records an event occupying {@code [eventStart, eventEnd)} of the segment.
+     */
+    void add(final int eventStart, final int eventEnd, final long millis, final int intLevel) {
+        if (events > 0 && (events >= maxEvents || millis - firstMillis >= intervalMillis)) {
+            finishEntry();
+        }
+        if (events == 0) {
+            start = eventStart;
+            firstMillis = millis;
+            minMillis = millis;
+            maxMillis = millis;
+            levels = 0;
+        } else if (millis < minMillis) {
+            minMillis = millis;
+        } else if (millis > maxMillis) {
+            maxMillis = millis;
+        }
+        end = eventEnd;
+        levels |= TimeLevelIndex.levelBit(intLevel);
+        events++;
+    }
+
+    /**
+     * Writes the finished entries; the run still being collected stays in memory.
+     */
+    void flush() {
+        if (failed || entries.position() == 0) {
+            return;
+        }
+        entries.flip();
+        try {
+            while (entries.hasRemaining()) {
+                position += channel.write(entries, position);
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Unable to write index {}, no longer indexing this segment: {}", path, e.getMessage());
+            failed = true;
+        }
+        entries.clear();
+    }
+
+    void close() {
+        if (events > 0) {
+            finishEntry();
+        }
+        flush();
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            LOGGER.error("Unable to close index {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void finishEntry() {
+        if (entries.remaining() < TimeLevelIndex.ENTRY_SIZE) {
+            flush();
+        }
+        TimeLevelIndex.encode(start, end - start, events, minMillis, maxMillis, levels, entries);
+        events = 0;
+    }
+}
@@ -0,0 +1,368 @@
+package com.span.logflex.core.buffer;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent FIFO of encoded events kept in fixed-size memory-mapped segment files.
+ * <p>
+ * Records are stored as {@code [length][crc32][payload]}. The length is written last, so a reader never
+ * sees a record whose payload is still being copied, and the CRC lets recovery cut the tail at the first
+ * torn record after a crash. The read position is persisted to a two-slot checkpoint file by
+ * {@link #checkpoint()}; segments entirely behind the checkpoint are deleted.
+ * <p>
+ * One producer at a time may call {@link #offer} (calls are synchronized) while a single consumer thread
+ * calls {@link #poll}, {@link #checkpoint} and {@link #rewind}. Records polled but not yet checkpointed are read
+ * again after a restart, so a consumer that checkpoints only what it has delivered never loses a record.
+ * Appending copies straight into the mapped segment and does not allocate, except when a new segment has to
+ * be mapped.
+ */
+public final class DiskOverflowQueue implements Closeable {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    private static final int RECORD_HEADER = 8;
+    private static final int END_OF_SEGMENT = -1;
+    private static final int CHECKPOINT_SLOT = 32;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String CHECKPOINT_FILE = "checkpoint.dat";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final CRC32 writeCrc = new CRC32();
+    private final CRC32 readCrc = new CRC32();
+    private final FileChannel checkpointChannel;
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(CHECKPOINT_SLOT);
+    private long checkpointSequence;
+
+    // producer side, guarded by this
+    private int writeSegment;
+    private int writeOffset;
+    private MappedByteBuffer writeBuffer;
+
+    // consumer side
+    private int readSegment;
+    private int readOffset;
+    private ByteBuffer readBuffer;
+    private int deletedBelow;
+
+    // (segment << 32 | offset) of the first free byte and of the next unread record
+    private volatile long tail;
+    private volatile long head;
+    private volatile long checkpointed;
+
+    /**
+     * Opens or creates a queue in the given directory, recovering whatever a previous run left there.
+     *
+     * @param segmentSize size of each segment file; also the upper bound for a single record
+     * @param maxSegments number of segments the queue may occupy before {@link #offer} starts refusing records
+     */
+    public DiskOverflowQueue(final Path directory, final int segmentSize, final int maxSegments) throws IOException {
+        if (segmentSize <= RECORD_HEADER * 2 || maxSegments < 2) {
+            throw new IllegalArgumentException("segmentSize must exceed 16 bytes and maxSegments must be at least 2");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        this.checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        final List<Integer> segments = listSegments();
+        final long checkpoint = readCheckpoint();
+        int headSegment = checkpoint >= 0 ? segment(checkpoint) : 0;
+        int headOffset = checkpoint >= 0 ? offset(checkpoint) : 0;
+        if (!segments.isEmpty() && headSegment < segments.get(0)) {
+            headSegment = segments.get(0);
+            headOffset = 0;
+        }
+        for (final int id : segments) {
+            if (id < headSegment) {
+                Files.deleteIfExists(segmentPath(id));
+            }
+        }
+
+        writeSegment = segments.isEmpty() ? headSegment : Math.max(headSegment, segments.get(segments.size() - 1));
+        writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+        writeOffset = scanValidEnd(writeBuffer);
+        // clear whatever a torn write left behind so it can never be mistaken for a record later
+        final byte[] zeros = new byte[8192];
+        for (int i = writeOffset; i < segmentSize; i += zeros.length) {
+            writeBuffer.put(i, zeros, 0, Math.min(zeros.length, segmentSize - i));
+        }
+        if (headSegment == writeSegment && headOffset > writeOffset) {
+            headOffset = writeOffset;
+        }
+
+        readSegment = headSegment;
+        readOffset = headOffset;
+        deletedBelow = headSegment;
+        tail = position(writeSegment, writeOffset);
+        head = position(readSegment, readOffset);
+        checkpointed = head;
+        if (!isEmpty()) {
+            LOGGER.info("Recovered overflow queue in {} with segments {} to {}", directory, readSegment, writeSegment);
+        }
+    }
+
+    /**
+     * Appends one record. Never blocks.
+     *
+     * @return false if the record is larger than a segment, the queue is full or the disk write failed
+     */
+    public synchronized boolean offer(final byte[] src, final int off, final int len) {
+        if (len == 0) {
+            return true;
+        }
+        if (len > segmentSize - RECORD_HEADER) {
+            return false;
+        }
+        try {
+            if (writeOffset + RECORD_HEADER + len > segmentSize && !roll()) {
+                return false;
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Unable to create overflow segment in {}: {}", directory, e.getMessage());
+            return false;
+        }
+
+        writeCrc.reset();
+        writeCrc.update(src, off, len);
+        writeBuffer.put(writeOffset + RECORD_HEADER, src, off, len);
+        writeBuffer.putInt(writeOffset + Integer.BYTES, (int) writeCrc.getValue());
+        writeBuffer.putInt(writeOffset, len);
+        writeOffset += RECORD_HEADER + len;
+        tail = position(writeSegment, writeOffset);
+        return true;
+    }
+
+    private boolean roll() throws IOException {
+        if (writeSegment + 1 - segment(head) >= maxSegments) {
+            return false;
+        }
+        final MappedByteBuffer next = map(writeSegment + 1, FileChannel.MapMode.READ_WRITE);
+        if (writeOffset + Integer.BYTES <= segmentSize) {
+            writeBuffer.putInt(writeOffset, END_OF_SEGMENT);
+        }
+        writeSegment++;
+        writeOffset = 0;
+        writeBuffer = next;
+        tail = position(writeSegment, 0);
+        return true;
+    }
+
+    /**
+     * Removes and returns the oldest record, or null if the queue is empty. The removal becomes durable
+     * with the next {@link #checkpoint()}.
+     */
+    public byte[] poll() throws IOException {
+        while (true) {
+            final long tail = this.tail;
+            final int tailSegment = segment(tail);
+            if (readSegment == tailSegment && readOffset >= offset(tail)) {
+                return null;
+            }
+            if (readBuffer == null) {
+                readBuffer = map(readSegment, FileChannel.MapMode.READ_ONLY);
+            }
+
+            final int length = readOffset + RECORD_HEADER <= segmentSize ? readBuffer.getInt(readOffset) : END_OF_SEGMENT;
+            if (length <= 0 || readOffset + RECORD_HEADER + length > segmentSize) {
+                if (readSegment < tailSegment) {
+                    nextReadSegment();
+                    continue;
+                }
+                return null;
+            }
+
+            final byte[] record = new byte[length];
+            readBuffer.get(readOffset + RECORD_HEADER, record);
+            readCrc.reset();
+            readCrc.update(record);
+            if ((int) readCrc.getValue() != readBuffer.getInt(readOffset + Integer.BYTES)) {
+                LOGGER.warn("Skipping corrupt overflow segment {} from offset {}", readSegment, readOffset);
+                if (readSegment < tailSegment) {
+                    nextReadSegment();
+                    continue;
+                }
+                return null;
+            }
+            readOffset += RECORD_HEADER + length;
+            head = position(readSegment, readOffset);
+            return record;
+        }
+    }
+
+    private void nextReadSegment() {
+        readSegment++;
+        readOffset = 0;
+        readBuffer = null;
+        head = position(readSegment, 0);
+    }
+
+    /**
+     * Persists the current read position and deletes segments that have been fully consumed.
+     */
+    public void checkpoint() throws IOException {
+        final long head = this.head;
+        if (head == checkpointed) {
+            return;
+        }
+        final long sequence = ++checkpointSequence;
+        checkpointBuffer.clear();
+        checkpointBuffer.putLong(sequence).putLong(head);
+        checkpointBuffer.putLong(crc(checkpointBuffer.array(), 16));
+        checkpointBuffer.putLong(0L);
+        checkpointBuffer.flip();
+        checkpointChannel.write(checkpointBuffer, (sequence & 1) * CHECKPOINT_SLOT);
+        checkpointChannel.force(false);
+        checkpointed = head;
+
+        final int headSegment = segment(head);
+        while (deletedBelow < headSegment) {
+            Files.deleteIfExists(segmentPath(deletedBelow++));
+        }
+    }
+
+    /**
+     * Moves the read position back to the last checkpoint, so records polled since then are read again.
+     */
+    public void rewind() {
+        final long checkpointed = this.checkpointed;
+        readSegment = segment(checkpointed);
+        readOffset = offset(checkpointed);
+        readBuffer = null;
+        head = checkpointed;
+    }
+
+    /**
+     * Forces records appended so far to the storage device.
+     */
+    public synchronized void sync() {
+        writeBuffer.force();
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Number of segment files currently holding unread records.
+     */
+    public int getSegmentCount() {
+        return segment(tail) - segment(head) + 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        checkpoint();
+        checkpointChannel.close();
+    }
+
+    private long readCheckpoint() throws IOException {
+        long best = -1;
+        long bestSequence = -1;
+        final ByteBuffer slot = ByteBuffer.allocate(CHECKPOINT_SLOT);
+        for (int i = 0; i < 2; i++) {
+            slot.clear();
+            if (checkpointChannel.read(slot, (long) i * CHECKPOINT_SLOT) < CHECKPOINT_SLOT) {
+                continue;
+            }
+            final long sequence = slot.getLong(0);
+            if (slot.getLong(16) == crc(slot.array(), 16) && sequence > bestSequence) {
+                bestSequence = sequence;
+                best = slot.getLong(8);
+            }
+        }
+        checkpointSequence = Math.max(bestSequence, 0);
+        return best;
+    }
+
+    private int scanValidEnd(final ByteBuffer segment) {
+        final byte[] scratch = new byte[8192];
+        int offset = 0;
+        while (offset + RECORD_HEADER <= segmentSize) {
+            final int length = segment.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER + length > segmentSize) {
+                break;
+            }
+            readCrc.reset();
+            for (int done = 0; done < length; ) {
+                final int chunk = Math.min(scratch.length, length - done);
+                segment.get(offset + RECORD_HEADER + done, scratch, 0, chunk);
+                readCrc.update(scratch, 0, chunk);
+                done += chunk;
+            }
+            if ((int) readCrc.getValue() != segment.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+            offset += RECORD_HEADER + length;
+        }
+        return offset;
+    }
+
+    private MappedByteBuffer map(final int segment, final FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // mapping read-write past the end extends the file to the full segment size
+            return channel.map(mode, 0, segmentSize);
+        }
+    }
+
+    private List<Integer> listSegments() throws IOException {
+        final List<Integer> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                try {
+                    segments.add(Integer.parseInt(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (final NumberFormatException e) {
+                    LOGGER.warn("Ignoring unexpected file {} in overflow directory", path);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(final int segment) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static long crc(final byte[] bytes, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    private static long position(final int segment, final int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segment(final long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(final long position) {
+        return (int) position;
+    }
+}
@@ -0,0 +1,35 @@
+package com.span.logflex.core.buffer;
+
+/**
+ * Bit tricks for scanning eight bytes at a time held in a long read in little-endian order, so the byte at
+ * the lowest index is the lowest byte of the long.
+ */
+public final class Swar {
+    public static final long ONES = 0x0101010101010101L;
+    public static final long HIGH_BITS = 0x8080808080808080L;
+
+    private Swar() {
+    }
+
+    /**
+     * A long with every byte set to the ASCII character {@code c}.
+     */
+    public static long repeat(final char c) {
+        return (c & 0xFFL) * ONES;
+    }
+
+    /**
+     * Sets the high bit of every zero byte of {@code word}. A borrow can also flag a byte above a real zero,
+     * so only the lowest flag is exact, which is all a search for the first match needs.
+     */
+    public static long zeroBytes(final long word) {
+        return (word - ONES) & ~word & HIGH_BITS;
+    }
+
+    /**
+     * Index within the long of the lowest byte flagged in a non-zero result of {@link #zeroBytes}.
+     */
+    public static int firstFlagged(final long found) {
+        return Long.numberOfTrailingZeros(found) >>> 3;
+    }
+}
@@ -0,0 +1,72 @@
+package com.span.logflex.core.layout;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.apache.logging.log4j.util.StringMap;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+/**
+ * Remembers, per thread, the compact JSON of the last context map serialized on it.
+ * <p>
+ * Copy-on-write ThreadContext maps hand every event the same frozen {@link StringMap} until the next put, so a
+ * repeated MDC is recognized by identity; a map rebuilt with the same content is caught by {@code equals},
+ * which is still far cheaper than escaping and encoding it again. Only frozen maps are cached, as a mutable
+ * map could change behind the cached fragment.
+ */
+final class ContextFragmentCache {
+    private static final SerializedString EMPTY = new SerializedString("");
+
+    private final JsonFactory factory;
+    private final ThreadLocal<Entry> last = new ThreadLocal<>();
+
+    ContextFragmentCache(final JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * The entries of a frozen map as object fields with a leading comma, e.g. {@code ,"tenant":"a","user":"b"},
+     * in the order of {@link StringMap#toMap()}.
+     */
+    SerializableString get(final StringMap contextData) throws IOException {
+        Entry entry = last.get();
+        if (entry != null && (entry.contextData == contextData || entry.contextData.equals(contextData))) {
+            // keep the newer instance so the next event with it is an identity hit
+            entry.contextData = contextData;
+            return entry.fragment;
+        }
+        final SerializableString fragment = encode(contextData.toMap());
+        if (entry == null) {
+            entry = new Entry();
+            last.set(entry);
+        }
+        entry.contextData = contextData;
+        entry.fragment = fragment;
+        return fragment;
+    }
+
+    private SerializableString encode(final Map<String, String> fields) throws IOException {
+        if (fields.isEmpty()) {
+            return EMPTY;
+        }
+        final StringWriter out = new StringWriter();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            for (final Map.Entry<String, String> field : fields.entrySet()) {
+                generator.writeStringField(field.getKey(), field.getValue());
+            }
+            generator.writeEndObject();
+        }
+        final String object = out.toString();
+        return new SerializedString(',' + object.substring(1, object.length() - 1));
+    }
+
+    private static final class Entry {
+        private StringMap contextData;
+        private SerializableString fragment;
+    }
+}
@@ -68,12 +68,14 @@ public final class FlexJsonEvent implements LogEvent {
         }
 
         @Override
+        @JsonSerialize(using = SerializedStringCache.LevelSerializer.class)
         public Level getLevel() {
             return event.getLevel();
         }
 
         @Override
         @JsonProperty("logger")
+        @JsonSerialize(using = SerializedStringCache.StringSerializer.class)
         public String getLoggerName() {
             return event.getLoggerName();
         }
@@ -84,6 +86,7 @@ public final class FlexJsonEvent implements LogEvent {
         }
 
         @Override
+        @JsonSerialize(using = FlexMessageSerializer.class)
         public Message getMessage() {
             return event.getMessage();
         }
@@ -107,6 +110,7 @@ public final class FlexJsonEvent implements LogEvent {
         }
 
         @Override
+        @JsonSerialize(using = SerializedStringCache.StringSerializer.class)
         public String getThreadName() {
             return event.getThreadName();
         }
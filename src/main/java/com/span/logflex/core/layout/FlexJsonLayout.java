@@ -1,10 +1,14 @@
 package com.span.logflex.core.layout;
 
-import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonRootName;
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.span.logflex.core.marker.JsonMarker;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Marker;
@@ -17,24 +21,32 @@ import org.apache.logging.log4j.core.config.plugins.Plugin;
 import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
 import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
 import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.impl.LocationAware;
 import org.apache.logging.log4j.core.impl.ThrowableProxy;
 import org.apache.logging.log4j.core.jackson.XmlConstants;
 import org.apache.logging.log4j.core.layout.AbstractStringLayout;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
 import org.apache.logging.log4j.core.layout.PatternLayout;
 import org.apache.logging.log4j.core.lookup.StrSubstitutor;
 import org.apache.logging.log4j.core.time.Instant;
+import org.apache.logging.log4j.core.util.Constants;
 import org.apache.logging.log4j.core.util.KeyValuePair;
 import org.apache.logging.log4j.core.util.StringBuilderWriter;
 import org.apache.logging.log4j.message.Message;
 import org.apache.logging.log4j.util.ReadOnlyStringMap;
+import org.apache.logging.log4j.util.StringMap;
 import org.apache.logging.log4j.util.Strings;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Plugin(
         name = "FlexJsonLayout",
@@ -42,17 +54,28 @@ import java.util.Map;
         elementType = Layout.ELEMENT_TYPE,
         printObject = true
 )
-public final class FlexJsonLayout extends AbstractStringLayout {
+public final class FlexJsonLayout extends AbstractStringLayout implements LocationAware {
     private static final String DEFAULT_FOOTER = "]";
     private static final String DEFAULT_HEADER = "[";
     private static final String DEFAULT_EOL = "\r\n";
     private static final String COMPACT_EOL = Strings.EMPTY;
+    private static final byte[] SEPARATOR = {',', ' '};
+    private static final LogEvent[] NO_EVENTS = new LogEvent[0];
     private final ResolvableKeyValuePair[] additionalFields;
     private final String eol;
+    private final byte[] eolBytes;
+    private final boolean utf8;
     private final ObjectWriter objectWriter;
+    private final ObjectWriter locationWriter;
+    private final Level locationInfoLevel;
+    private final double locationInfoSampleRate;
+    private final boolean requiresLocation;
     private final boolean complete;
     private final boolean includeNullDelimiter;
     private final boolean unwrapContextMap;
+    private final ContextFragmentCache contextFragments;
+    private final FlightRecorder flightRecorder;
+    private final ThreadLocal<EventBytes> eventBytes = Constants.ENABLE_THREADLOCALS ? new ThreadLocal<>() : null;
 
     private FlexJsonLayout(Configuration config,
                            Charset aCharset,
@@ -62,6 +85,8 @@ public final class FlexJsonLayout extends AbstractStringLayout {
                            boolean stackTraceAsString,
                            boolean objectMessageAsJsonObject,
                            boolean locationInfo,
+                           Level locationInfoLevel,
+                           double locationInfoSampleRate,
                            boolean properties,
                            boolean compact,
                            boolean includeTimeMillis,
@@ -70,19 +95,44 @@ public final class FlexJsonLayout extends AbstractStringLayout {
                            boolean eventEol,
                            boolean unwrapContextMap,
                            String endOfLine,
-                           KeyValuePair[] additionalFields) {
+                           KeyValuePair[] additionalFields,
+                           int maxCachedStrings,
+                           FlightRecorder flightRecorder) {
 
         super(config, aCharset,
                 PatternLayout.newSerializerBuilder().setConfiguration(config)
                         .setPattern(headerPattern).setDefaultPattern(DEFAULT_HEADER).build(),
                 PatternLayout.newSerializerBuilder().setConfiguration(config)
                         .setPattern(footerPattern).setDefaultPattern(DEFAULT_FOOTER).build());
-        this.objectWriter = new JacksonFactory.JSON(encodeThreadContextAsList, includeStacktrace, stackTraceAsString, objectMessageAsJsonObject).newWriter(locationInfo, properties, compact, includeTimeMillis);
+        final JacksonFactory jacksonFactory = new JacksonFactory.JSON(encodeThreadContextAsList, includeStacktrace, stackTraceAsString, objectMessageAsJsonObject);
+        final SerializedStringCache strings = maxCachedStrings > 0 ? new SerializedStringCache(maxCachedStrings) : null;
+        final boolean conditionalLocation = locationInfo && locationInfoLevel != null;
+        this.objectWriter = withAttributes(jacksonFactory.newWriter(locationInfo && !conditionalLocation, properties, compact, includeTimeMillis),
+                objectMessageAsJsonObject, strings);
+        this.locationWriter = conditionalLocation
+                ? withAttributes(jacksonFactory.newWriter(true, properties, compact, includeTimeMillis), objectMessageAsJsonObject, strings)
+                : null;
+        this.locationInfoLevel = locationInfoLevel;
+        this.locationInfoSampleRate = locationInfoSampleRate;
+        this.requiresLocation = locationInfo && !conditionalLocation;
         this.complete = complete;
         this.includeNullDelimiter = includeNullDelimiter;
         this.unwrapContextMap = unwrapContextMap;
         this.eol = endOfLine != null ? endOfLine : (compact && !eventEol ? COMPACT_EOL : DEFAULT_EOL);
+        this.eolBytes = eol.getBytes(StandardCharsets.UTF_8);
+        this.utf8 = StandardCharsets.UTF_8.equals(aCharset);
         this.additionalFields = prepareAdditionalFields(config, additionalFields);
+        // raw fragments bypass the pretty printer, so they are only used for compact output
+        this.contextFragments = compact && Constants.ENABLE_THREADLOCALS
+                ? new ContextFragmentCache(objectWriter.getFactory()) : null;
+        this.flightRecorder = flightRecorder;
+    }
+
+    private static ObjectWriter withAttributes(final ObjectWriter writer, final boolean objectMessageAsJsonObject,
+                                               final SerializedStringCache strings) {
+        final ObjectWriter messageWriter =
+                writer.withAttribute(FlexMessageSerializer.OBJECT_MESSAGE_AS_JSON_OBJECT, objectMessageAsJsonObject);
+        return strings != null ? messageWriter.withAttribute(SerializedStringCache.ATTRIBUTE, strings) : messageWriter;
     }
 
     static boolean valueNeedsLookup(final String value) {
@@ -115,6 +165,17 @@ public final class FlexJsonLayout extends AbstractStringLayout {
         return new FlexJsonLayout.Builder<B>().asBuilder();
     }
 
+    /**
+     * Only unconditional location info asks loggers to capture the caller up front. With a
+     * {@code locationInfoLevel} the source is computed lazily, and only for the events written with it; that
+     * needs {@code includeLocation} on the logger config, the default for synchronous loggers. Asynchronous
+     * loggers only capture location up front, so they get none with conditional location info.
+     */
+    @Override
+    public boolean requiresLocation() {
+        return requiresLocation;
+    }
+
     public byte[] getHeader() {
         if (!this.complete) {
             return null;
@@ -158,8 +219,115 @@ public final class FlexJsonLayout extends AbstractStringLayout {
         }
     }
 
+    @Override
+    public byte[] toByteArray(final LogEvent event) {
+        if (!utf8) {
+            return super.toByteArray(event);
+        }
+        final EventBytes bytes = getEventBytes();
+        try {
+            toSerializable(event, bytes);
+        } catch (final IOException e) {
+            LOGGER.error(e);
+            return new byte[0];
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * With UTF-8 output, Jackson generates bytes directly into a reusable per-thread buffer, which is then copied
+     * into the destination; strings take the {@link JsonStrings} fast path there. Other charsets serialize into
+     * the thread's reusable StringBuilder and encode the chars into the destination buffer.
+     */
+    @Override
+    public void encode(final LogEvent event, final ByteBufferDestination destination) {
+        if (utf8) {
+            final EventBytes bytes = getEventBytes();
+            try {
+                toSerializable(event, bytes);
+            } catch (final IOException e) {
+                LOGGER.error(e);
+                return;
+            }
+            if (bytes.size() > 0) {
+                destination.writeBytes(bytes.array(), 0, bytes.size());
+            }
+            return;
+        }
+        final StringBuilder text = getStringBuilder();
+        try {
+            toSerializable(event, new StringBuilderWriter(text));
+        } catch (final IOException e) {
+            LOGGER.error(e);
+            return;
+        }
+        if (text.length() > 0) {
+            getStringBuilderEncoder().encode(text, destination);
+        }
+    }
+
+    /**
+     * The events an appender writes for an appended one, oldest first. With a FlexJsonLayout that has a flight
+     * recorder these are none when the recorder keeps the event, and the recorded events followed by the event
+     * itself when it dumps them; with any other layout it is just the event. Appenders that frame or index every
+     * event on its own pass each of these to {@link Layout#encode} or {@link Layout#toByteArray} separately, so a
+     * dump reaches them as separate events with their own time and level. Events from a FlexJsonLayout have
+     * been through the recorder and are written as they are.
+     */
+    public static LogEvent[] eventsToWrite(final Layout<?> layout, final LogEvent event) {
+        if (layout instanceof FlexJsonLayout flexLayout && flexLayout.flightRecorder != null) {
+            return flexLayout.recordOrDump(event);
+        }
+        return new LogEvent[] {event};
+    }
+
+    private LogEvent[] recordOrDump(final LogEvent event) {
+        if (flightRecorder.record(event)) {
+            return NO_EVENTS;
+        }
+        final LogEvent[] recorded = flightRecorder.dump(event);
+        final LogEvent[] events = new LogEvent[recorded.length + 1];
+        for (int i = 0; i < recorded.length; i++) {
+            events[i] = FlexJsonEvent.createMemento(recorded[i]);
+        }
+        events[recorded.length] = FlexJsonEvent.createMemento(event);
+        return events;
+    }
+
+    /**
+     * Writes nothing for an event the flight recorder keeps, and the recorded events before an event that dumps
+     * them, all in the one call; a {@link FlexJsonEvent} from {@link #eventsToWrite} skips the recorder. Recorded
+     * events are written without location info unless it is unconditional, as it was not captured when they
+     * were logged and computing it now would point at the dumping call.
+     */
     private void toSerializable(final LogEvent event, final Writer writer)
             throws IOException {
+        if (flightRecorder != null && !(event instanceof FlexJsonEvent)) {
+            if (flightRecorder.record(event)) {
+                return;
+            }
+            for (final LogEvent recorded : flightRecorder.dump(event)) {
+                writeEvent(objectWriter, recorded, writer);
+            }
+        }
+        writeEvent(writerFor(event), event, writer);
+    }
+
+    private void toSerializable(final LogEvent event, final OutputStream out)
+            throws IOException {
+        if (flightRecorder != null && !(event instanceof FlexJsonEvent)) {
+            if (flightRecorder.record(event)) {
+                return;
+            }
+            for (final LogEvent recorded : flightRecorder.dump(event)) {
+                writeEvent(objectWriter, recorded, out);
+            }
+        }
+        writeEvent(writerFor(event), event, out);
+    }
+
+    private void writeEvent(final ObjectWriter objectWriter, final LogEvent event, final Writer writer)
+            throws IOException {
         if (complete && eventCount > 0) {
             writer.append(", ");
         }
@@ -172,29 +340,113 @@ public final class FlexJsonLayout extends AbstractStringLayout {
         markEvent();
     }
 
+    private void writeEvent(final ObjectWriter objectWriter, final LogEvent event, final OutputStream out)
+            throws IOException {
+        if (complete && eventCount > 0) {
+            out.write(SEPARATOR);
+        }
+
+        objectWriter.writeValue(out, wrapLogEvent(convertMutableToFlexJsonEvent(event)));
+        out.write(eolBytes);
+        if (includeNullDelimiter) {
+            out.write(0);
+        }
+        markEvent();
+    }
+
+    /**
+     * The writer that includes the source for events at or above {@code locationInfoLevel} and for the sampled
+     * share of the rest; the other writer filters the property out, so the stack is never walked for them.
+     */
+    private ObjectWriter writerFor(final LogEvent event) {
+        if (locationWriter == null) {
+            return objectWriter;
+        }
+        final Level level = event.getLevel();
+        if (level != null && level.isMoreSpecificThan(locationInfoLevel)
+                || locationInfoSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < locationInfoSampleRate) {
+            return locationWriter;
+        }
+        return objectWriter;
+    }
+
+    private EventBytes getEventBytes() {
+        if (eventBytes == null) {
+            return new EventBytes();
+        }
+        EventBytes bytes = eventBytes.get();
+        if (bytes == null || bytes.array().length > MAX_STRING_BUILDER_SIZE) {
+            // like the StringBuilder, do not keep a buffer grown by one huge event
+            bytes = new EventBytes();
+            eventBytes.set(bytes);
+        }
+        bytes.reset();
+        return bytes;
+    }
+
     private Map<String, String> resolveAdditionalFields(final LogEvent logEvent) {
         final ReadOnlyStringMap contextData = logEvent.getContextData();
-        final Map<String, String> additionalFieldsMap = new LinkedHashMap<>(additionalFields.length);
+        final Map<String, String> additionalFieldsMap = resolveConfiguredFields(logEvent);
+        additionalFieldsMap.putAll(contextData.toMap());
+
+        if (logEvent.getMarker() instanceof JsonMarker jm) {
+            additionalFieldsMap.putAll(jm.data());
+        }
+
+        return additionalFieldsMap;
+    }
+
+    private Map<String, String> resolveConfiguredFields(final LogEvent logEvent) {
+        final Map<String, String> configuredFields = new LinkedHashMap<>(additionalFields.length);
         final StrSubstitutor strSubstitutor = configuration.getStrSubstitutor();
 
         for (final ResolvableKeyValuePair pair : additionalFields) {
             if (pair.valueNeedsLookup) {
-                additionalFieldsMap.put(pair.key, strSubstitutor.replace(logEvent, pair.value));
+                configuredFields.put(pair.key, strSubstitutor.replace(logEvent, pair.value));
             } else {
-                additionalFieldsMap.put(pair.key, pair.value);
+                configuredFields.put(pair.key, pair.value);
             }
         }
-        additionalFieldsMap.putAll(contextData.toMap());
+        return configuredFields;
+    }
 
-        if (logEvent.getMarker() instanceof JsonMarker jm) {
-            additionalFieldsMap.putAll(jm.data());
+    /**
+     * Same output as {@link LogEventWithAdditionalFields}, with the context map written from the per-thread
+     * fragment cache. Returns null when the cache does not apply or a key is shared between the configured
+     * fields, the context map and the marker data, whose merge order only the map-based path reproduces.
+     */
+    private Object wrapWithCachedContext(final LogEvent event) throws IOException {
+        if (!(event.getContextData() instanceof StringMap contextData) || !contextData.isFrozen()
+                || contextData.isEmpty()) {
+            return null;
         }
-
-        return additionalFieldsMap;
+        final Map<String, String> configuredFields = resolveConfiguredFields(event);
+        for (final String key : configuredFields.keySet()) {
+            if (contextData.containsKey(key)) {
+                return null;
+            }
+        }
+        Map<String, String> markerFields = Collections.emptyMap();
+        if (event.getMarker() instanceof JsonMarker jm) {
+            markerFields = jm.data();
+            for (final String key : markerFields.keySet()) {
+                if (contextData.containsKey(key) || configuredFields.containsKey(key)) {
+                    return null;
+                }
+            }
+        }
+        return new LogEventWithCachedContext(event, new CachedContextFields(configuredFields, contextData,
+                contextFragments.get(contextData), markerFields));
     }
 
-    private Object wrapLogEvent(final LogEvent event) {
+    private Object wrapLogEvent(final LogEvent event) throws IOException {
         if (additionalFields.length > 0 || unwrapContextMap) {
+            if (contextFragments != null) {
+                final Object cached = wrapWithCachedContext(event);
+                if (cached != null) {
+                    return cached;
+                }
+            }
             // Construct map for serialization - note that we are intentionally using original LogEvent
             final Map<String, String> additionalFieldsMap = resolveAdditionalFields(event);
             // This class combines LogEvent with AdditionalFields during serialization
@@ -225,6 +477,12 @@ public final class FlexJsonLayout extends AbstractStringLayout {
         @PluginBuilderAttribute
         private boolean locationInfo;
 
+        @PluginBuilderAttribute
+        private Level locationInfoLevel;
+
+        @PluginBuilderAttribute
+        private double locationInfoSampleRate;
+
         @PluginBuilderAttribute
         private boolean properties;
 
@@ -249,6 +507,24 @@ public final class FlexJsonLayout extends AbstractStringLayout {
         @PluginBuilderAttribute
         private boolean objectMessageAsJsonObject;
 
+        @PluginBuilderAttribute
+        private int maxCachedStrings = 2048;
+
+        @PluginBuilderAttribute
+        private Level flightRecorderLevel;
+
+        @PluginBuilderAttribute
+        private Level flightRecorderDumpLevel = Level.ERROR;
+
+        @PluginBuilderAttribute
+        private int flightRecorderSize = 64;
+
+        @PluginBuilderAttribute
+        private String flightRecorderKey;
+
+        @PluginBuilderAttribute
+        private int flightRecorderMaxKeys = 128;
+
         @PluginElement("AdditionalField")
         private KeyValuePair[] additionalFields;
 
@@ -266,11 +542,31 @@ public final class FlexJsonLayout extends AbstractStringLayout {
             final boolean encodeThreadContextAsList = isProperties() && isPropertiesAsList();
             final String headerPattern = toStringOrNull(getHeader());
             final String footerPattern = toStringOrNull(getFooter());
+            if (!(locationInfoSampleRate >= 0 && locationInfoSampleRate <= 1)) {
+                LOGGER.error("locationInfoSampleRate must be between 0 and 1, got {}", locationInfoSampleRate);
+                return null;
+            }
+            if (locationInfoSampleRate > 0 && locationInfoLevel == null) {
+                // without a level every event already gets the source, so the rate would be silently ignored
+                LOGGER.error("locationInfoSampleRate requires locationInfoLevel");
+                return null;
+            }
+            FlightRecorder flightRecorder = null;
+            if (flightRecorderLevel != null) {
+                if (flightRecorderSize <= 0 || flightRecorderMaxKeys <= 0 || flightRecorderDumpLevel == null) {
+                    LOGGER.error("flightRecorderSize and flightRecorderMaxKeys must be positive and flightRecorderDumpLevel set");
+                    return null;
+                }
+                flightRecorder = new FlightRecorder(flightRecorderLevel, flightRecorderDumpLevel, flightRecorderSize,
+                        flightRecorderKey, flightRecorderMaxKeys, isLocationInfo() && getLocationInfoLevel() == null);
+            }
             return new FlexJsonLayout(getConfiguration(), getCharset(),
                     headerPattern, footerPattern, encodeThreadContextAsList, isIncludeStacktrace(),
-                    isStacktraceAsString(), isObjectMessageAsJsonObject(), isLocationInfo(), isProperties(),
+                    isStacktraceAsString(), isObjectMessageAsJsonObject(), isLocationInfo(), getLocationInfoLevel(),
+                    getLocationInfoSampleRate(), isProperties(),
                     isCompact(), isIncludeTimeMillis(), isComplete(), isIncludeNullDelimiter(),
-                    isEventEol(), isUnwrapContextMap(), getEndOfLine(), getAdditionalFields());
+                    isEventEol(), isUnwrapContextMap(), getEndOfLine(), getAdditionalFields(), getMaxCachedStrings(),
+                    flightRecorder);
         }
 
         public boolean isEventEol() {
@@ -318,6 +614,36 @@ public final class FlexJsonLayout extends AbstractStringLayout {
             return asBuilder();
         }
 
+        public Level getLocationInfoLevel() {
+            return locationInfoLevel;
+        }
+
+        /**
+         * With {@code locationInfo}, only events at this level or more severe get the source, plus the sampled
+         * share of the rest (optional, defaults to all events).
+         *
+         * @return this builder
+         */
+        public B setLocationInfoLevel(final Level locationInfoLevel) {
+            this.locationInfoLevel = locationInfoLevel;
+            return asBuilder();
+        }
+
+        public double getLocationInfoSampleRate() {
+            return locationInfoSampleRate;
+        }
+
+        /**
+         * Fraction, from 0 to 1, of the events below {@code locationInfoLevel} that still get the source; only
+         * valid together with {@code locationInfoLevel} (optional, defaults to 0).
+         *
+         * @return this builder
+         */
+        public B setLocationInfoSampleRate(final double locationInfoSampleRate) {
+            this.locationInfoSampleRate = locationInfoSampleRate;
+            return asBuilder();
+        }
+
         public boolean isProperties() {
             return properties;
         }
@@ -428,6 +754,96 @@ public final class FlexJsonLayout extends AbstractStringLayout {
             this.additionalFields = additionalFields;
             return asBuilder();
         }
+
+        public int getMaxCachedStrings() {
+            return maxCachedStrings;
+        }
+
+        /**
+         * How many distinct logger, level and thread names and field keys to keep pre-encoded; 0 disables the
+         * cache (optional, defaults to 2048).
+         *
+         * @return this builder
+         */
+        public B setMaxCachedStrings(final int maxCachedStrings) {
+            this.maxCachedStrings = maxCachedStrings;
+            return asBuilder();
+        }
+
+        public Level getFlightRecorderLevel() {
+            return flightRecorderLevel;
+        }
+
+        /**
+         * Events less severe than this are kept in memory instead of written, and written just before the next
+         * event at {@code flightRecorderDumpLevel} from the same thread or key. The loggers must let them through,
+         * e.g. at DEBUG (optional, defaults to no flight recorder).
+         *
+         * @return this builder
+         */
+        public B setFlightRecorderLevel(final Level flightRecorderLevel) {
+            this.flightRecorderLevel = flightRecorderLevel;
+            return asBuilder();
+        }
+
+        public Level getFlightRecorderDumpLevel() {
+            return flightRecorderDumpLevel;
+        }
+
+        /**
+         * Events at this level or more severe write out the recorded events (optional, defaults to ERROR).
+         *
+         * @return this builder
+         */
+        public B setFlightRecorderDumpLevel(final Level flightRecorderDumpLevel) {
+            this.flightRecorderDumpLevel = flightRecorderDumpLevel;
+            return asBuilder();
+        }
+
+        public int getFlightRecorderSize() {
+            return flightRecorderSize;
+        }
+
+        /**
+         * How many recent events to keep per thread or key (optional, defaults to 64).
+         *
+         * @return this builder
+         */
+        public B setFlightRecorderSize(final int flightRecorderSize) {
+            this.flightRecorderSize = flightRecorderSize;
+            return asBuilder();
+        }
+
+        public String getFlightRecorderKey() {
+            return flightRecorderKey;
+        }
+
+        /**
+         * Context map key, such as a request id, to group recorded events by instead of by thread; events
+         * without it are grouped by thread (optional).
+         *
+         * @return this builder
+         */
+        public B setFlightRecorderKey(final String flightRecorderKey) {
+            this.flightRecorderKey = flightRecorderKey;
+            return asBuilder();
+        }
+
+        public int getFlightRecorderMaxKeys() {
+            return flightRecorderMaxKeys;
+        }
+
+        /**
+         * How many keys, and threads whose events are encoded by another thread, to keep events for, dropping
+         * the least recently used; with the size this bounds the events held for them. A thread that encodes
+         * its own events keeps them in a thread local instead (optional, defaults to 128).
+         *
+         * @return this builder
+         */
+        public B setFlightRecorderMaxKeys(final int flightRecorderMaxKeys) {
+            this.flightRecorderMaxKeys = flightRecorderMaxKeys;
+            return asBuilder();
+        }
     }
 
     @JsonRootName(XmlConstants.ELT_EVENT)
@@ -446,13 +862,75 @@ public final class FlexJsonLayout extends AbstractStringLayout {
             return logEvent;
         }
 
-        @JsonAnyGetter
-        @SuppressWarnings("unused")
+        @JsonUnwrapped
+        @JsonSerialize(using = SerializedStringCache.FieldsSerializer.class)
         public Map<String, String> getAdditionalFields() {
             return additionalFields;
         }
     }
 
+    @JsonRootName(XmlConstants.ELT_EVENT)
+    static class LogEventWithCachedContext {
+
+        private final Object logEvent;
+        private final CachedContextFields fields;
+
+        LogEventWithCachedContext(final Object logEvent, final CachedContextFields fields) {
+            this.logEvent = logEvent;
+            this.fields = fields;
+        }
+
+        @JsonUnwrapped
+        public Object getLogEvent() {
+            return logEvent;
+        }
+
+        @JsonUnwrapped
+        @JsonSerialize(using = CachedContextFieldsSerializer.class)
+        public CachedContextFields getFields() {
+            return fields;
+        }
+    }
+
+    record CachedContextFields(Map<String, String> configuredFields, StringMap contextData,
+                               SerializableString contextFragment, Map<String, String> markerFields) {
+    }
+
+    /**
+     * Writes configured, context and marker fields into the enclosing event object. The context fragment carries
+     * its own leading comma, which is only valid after at least one field.
+     */
+    static class CachedContextFieldsSerializer extends JsonSerializer<CachedContextFields> {
+
+        @Override
+        public boolean isUnwrappingSerializer() {
+            return true;
+        }
+
+        @Override
+        public void serialize(final CachedContextFields value, final JsonGenerator gen,
+                              final SerializerProvider serializers) throws IOException {
+            SerializedStringCache.writeFields(value.configuredFields(), gen, serializers);
+            if (gen.getOutputContext().getEntryCount() > 0) {
+                gen.writeRaw(value.contextFragment());
+            } else {
+                SerializedStringCache.writeFields(value.contextData().toMap(), gen, serializers);
+            }
+            SerializedStringCache.writeFields(value.markerFields(), gen, serializers);
+        }
+    }
+
+    private static class EventBytes extends ByteArrayOutputStream {
+
+        EventBytes() {
+            super(DEFAULT_STRING_BUILDER_SIZE);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
     private static class ResolvableKeyValuePair {
 
         final String key;
@@ -0,0 +1,35 @@
+package com.span.logflex.core.layout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.span.logflex.core.message.JsonWritable;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ObjectMessage;
+
+import java.io.IOException;
+
+/**
+ * Writes the event message: the parameter of an {@link ObjectMessage} as JSON when the layout has
+ * {@code objectMessageAsJsonObject} set, by its own {@link JsonWritable#writeJson} if it has one and through
+ * databind otherwise, or else the formatted message through {@link JsonStrings}.
+ */
+class FlexMessageSerializer extends JsonSerializer<Message> {
+    static final String OBJECT_MESSAGE_AS_JSON_OBJECT = FlexMessageSerializer.class.getName() + ".objectAsJson";
+
+    @Override
+    public void serialize(final Message value, final JsonGenerator gen, final SerializerProvider provider)
+            throws IOException {
+        if (value instanceof ObjectMessage objectMessage
+                && Boolean.TRUE.equals(provider.getAttribute(OBJECT_MESSAGE_AS_JSON_OBJECT))) {
+            final Object parameter = objectMessage.getParameter();
+            if (parameter instanceof JsonWritable writable) {
+                writable.writeJson(gen);
+            } else {
+                gen.writeObject(parameter);
+            }
+        } else {
+            JsonStrings.writeString(value.getFormattedMessage(), gen);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.span.logflex.core.layout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.util.Constants;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ObjectMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the most recent events below a level in memory instead of writing them, and hands them back when an
+ * event at the dump level arrives, so an error is preceded by the debug output that led up to it.
+ * <p>
+ * Recording an event costs a memento of it and a slot in a ring; nothing is encoded. The message is formatted
+ * into the memento right away, so later changes to its parameters do not show up in the dump; an
+ * {@link ObjectMessage} keeps its parameter, which may be written as JSON. Events are grouped by the thread
+ * that logged them, or by the value of a context map key when one is configured and the event carries it.
+ * <p>
+ * When the event is encoded on the thread that logged it, its ring is a thread local and is used without
+ * locking. Rings for keys, and for threads whose events are encoded elsewhere such as by asynchronous loggers,
+ * live in a concurrent map and are locked one at a time. At most {@code maxKeys} of those are kept, dropping
+ * the least recently used, and a ring is removed when it is dumped, so per-request keys cannot exhaust memory.
+ */
+final class FlightRecorder {
+    private static final LogEvent[] NONE = new LogEvent[0];
+
+    private final Level level;
+    private final Level dumpLevel;
+    private final int size;
+    private final String key;
+    private final int maxKeys;
+    private final boolean includeLocation;
+    private final ThreadLocal<Ring> threadRings;
+    private final Map<Object, Ring> rings = new ConcurrentHashMap<>();
+
+    FlightRecorder(final Level level, final Level dumpLevel, final int size, final String key, final int maxKeys,
+                   final boolean includeLocation) {
+        this.level = level;
+        this.dumpLevel = dumpLevel;
+        this.size = size;
+        this.key = key;
+        this.maxKeys = maxKeys;
+        this.includeLocation = includeLocation;
+        this.threadRings = Constants.ENABLE_THREADLOCALS ? ThreadLocal.withInitial(() -> new Ring(size)) : null;
+    }
+
+    /**
+     * Keeps the event if it is less severe than the recording level; false if it should be written now.
+     */
+    boolean record(final LogEvent event) {
+        final Level eventLevel = event.getLevel();
+        if (eventLevel == null || eventLevel.isMoreSpecificThan(level)) {
+            return false;
+        }
+        final LogEvent snapshot = snapshot(event);
+        final Object ringKey = ringKey(event);
+        if (ringKey == null) {
+            threadRings.get().add(snapshot);
+            return true;
+        }
+        while (true) {
+            final Ring ring = ring(ringKey);
+            synchronized (ring) {
+                if (!ring.removed) {
+                    ring.add(snapshot);
+                    ring.lastUsed = System.nanoTime();
+                    return true;
+                }
+            }
+            // dumped or evicted since it was looked up
+        }
+    }
+
+    /**
+     * The events recorded for the event's thread or key, oldest first, when the event is at the dump level,
+     * emptying the ring; otherwise none.
+     */
+    LogEvent[] dump(final LogEvent event) {
+        final Level eventLevel = event.getLevel();
+        if (eventLevel == null || !eventLevel.isMoreSpecificThan(dumpLevel)) {
+            return NONE;
+        }
+        final Object ringKey = ringKey(event);
+        if (ringKey == null) {
+            return threadRings.get().drain();
+        }
+        final Ring ring = rings.remove(ringKey);
+        if (ring == null) {
+            return NONE;
+        }
+        synchronized (ring) {
+            ring.removed = true;
+            return ring.drain();
+        }
+    }
+
+    /**
+     * The context value as a String, or the thread id as a Long, so the two never collide; null when the
+     * event belongs in the current thread's ring.
+     */
+    private Object ringKey(final LogEvent event) {
+        if (key != null && event.getContextData() != null) {
+            final Object value = event.getContextData().getValue(key);
+            if (value != null) {
+                return value.toString();
+            }
+        }
+        final long threadId = event.getThreadId();
+        if (threadRings != null && threadId == Thread.currentThread().threadId()) {
+            return null;
+        }
+        return threadId;
+    }
+
+    private Ring ring(final Object ringKey) {
+        final Ring ring = rings.get(ringKey);
+        if (ring != null) {
+            return ring;
+        }
+        final Ring created = new Ring(size);
+        final Ring raced = rings.putIfAbsent(ringKey, created);
+        if (raced != null) {
+            return raced;
+        }
+        if (rings.size() > maxKeys) {
+            evictLeastRecentlyUsed(created);
+        }
+        return created;
+    }
+
+    /**
+     * Scans for the least recently used ring other than the one just added; only runs when a new key pushes
+     * the map over its bound.
+     */
+    private void evictLeastRecentlyUsed(final Ring keep) {
+        Map.Entry<Object, Ring> eldest = null;
+        for (final Map.Entry<Object, Ring> entry : rings.entrySet()) {
+            final Ring ring = entry.getValue();
+            if (ring != keep && (eldest == null || ring.lastUsed - eldest.getValue().lastUsed < 0)) {
+                eldest = entry;
+            }
+        }
+        if (eldest != null && rings.remove(eldest.getKey(), eldest.getValue())) {
+            synchronized (eldest.getValue()) {
+                eldest.getValue().removed = true;
+                eldest.getValue().drain();
+            }
+        }
+    }
+
+    /**
+     * An immutable copy carrying the formatted message. Its location is taken now if the layout always writes
+     * it, and never computed later, as that would point at the dumping call.
+     */
+    private LogEvent snapshot(final LogEvent event) {
+        final Message message = event.getMessage();
+        final Log4jLogEvent.Builder builder = new Log4jLogEvent.Builder(Log4jLogEvent.createMemento(event))
+                .setSource(includeLocation ? event.getSource() : null)
+                .setIncludeLocation(false);
+        if (message != null && !(message instanceof SimpleMessage) && !(message instanceof ObjectMessage)) {
+            builder.setMessage(new SimpleMessage(message.getFormattedMessage()));
+        }
+        return builder.build();
+    }
+
+    private static final class Ring {
+        private final LogEvent[] events;
+        private int next;
+        private int count;
+        // read without the lock when picking a ring to evict
+        private volatile long lastUsed = System.nanoTime();
+        // guarded by the ring for rings in the map
+        private boolean removed;
+
+        Ring(final int size) {
+            this.events = new LogEvent[size];
+        }
+
+        void add(final LogEvent event) {
+            events[next] = event;
+            next = (next + 1) % events.length;
+            if (count < events.length) {
+                count++;
+            }
+        }
+
+        LogEvent[] drain() {
+            if (count == 0) {
+                return NONE;
+            }
+            final LogEvent[] drained = new LogEvent[count];
+            final int first = (next - count + events.length) % events.length;
+            for (int i = 0; i < count; i++) {
+                drained[i] = events[(first + i) % events.length];
+            }
+            Arrays.fill(events, null);
+            next = 0;
+            count = 0;
+            return drained;
+        }
+    }
+}
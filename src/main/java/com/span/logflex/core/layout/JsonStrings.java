@@ -0,0 +1,165 @@
+package com.span.logflex.core.layout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.span.logflex.core.buffer.Swar;
+import org.apache.logging.log4j.core.util.Constants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * String escaping for UTF-8 generators that handles ASCII text eight bytes at a time.
+ * <p>
+ * The string is encoded as ASCII into a per-thread buffer, which also tells whether it is all ASCII, then
+ * scanned a long at a time for quotes, backslashes and control characters with SWAR bit tricks. Clean
+ * runs are bulk-copied into a second per-thread buffer and only the special bytes are escaped, using the same
+ * escapes as Jackson, and the result goes out through {@link JsonGenerator#writeRawUTF8String}; nothing is
+ * allocated per string. Short and very long strings, non-ASCII text, character-based generators and
+ * generators with custom escapes are left to {@link JsonGenerator#writeString(String)}.
+ */
+final class JsonStrings {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long CONTROL_LIMIT = Swar.repeat(' ');
+    private static final long QUOTES = Swar.repeat('"');
+    private static final long BACKSLASHES = Swar.repeat('\\');
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_ESCAPE_LENGTH = 6;
+    // below this the copy into the buffer costs more than the scan saves
+    private static final int MIN_LENGTH = 16;
+    // keeps the per-thread buffers small
+    private static final int MAX_LENGTH = 16 * 1024;
+    private static final ThreadLocal<Scratch> SCRATCH =
+            Constants.ENABLE_THREADLOCALS ? ThreadLocal.withInitial(Scratch::new) : null;
+
+    private JsonStrings() {
+    }
+
+    static void writeString(final String value, final JsonGenerator gen) throws IOException {
+        if (value == null || value.length() < MIN_LENGTH || value.length() > MAX_LENGTH || SCRATCH == null
+                || gen.getCharacterEscapes() != null || !(gen.getOutputTarget() instanceof OutputStream)) {
+            gen.writeString(value);
+            return;
+        }
+        final int length = value.length();
+        final Scratch scratch = SCRATCH.get();
+        final byte[] bytes = scratch.ascii(value, length);
+        if (bytes == null) {
+            gen.writeString(value);
+            return;
+        }
+        int special = nextSpecial(bytes, 0, length);
+        if (special == length) {
+            gen.writeRawUTF8String(bytes, 0, length);
+            return;
+        }
+        byte[] escaped;
+        int size = 0;
+        int from = 0;
+        while (special < length) {
+            escaped = scratch.ensureEscaped(size + special - from + MAX_ESCAPE_LENGTH);
+            System.arraycopy(bytes, from, escaped, size, special - from);
+            size = escape(bytes[special], escaped, size + special - from);
+            from = special + 1;
+            special = nextSpecial(bytes, from, length);
+        }
+        escaped = scratch.ensureEscaped(size + length - from);
+        System.arraycopy(bytes, from, escaped, size, length - from);
+        gen.writeRawUTF8String(escaped, 0, size + length - from);
+    }
+
+    /**
+     * Index of the first byte in {@code [from, length)} that is a quote, a backslash or a control character, or
+     * {@code length} if there is none.
+     */
+    static int nextSpecial(final byte[] bytes, final int from, final int length) {
+        int i = from;
+        while (i + Long.BYTES <= length) {
+            final long word = (long) LONGS.get(bytes, i);
+            // the input is ASCII, so a byte below the control limit is the only way to borrow into a high bit
+            final long found = ((word - CONTROL_LIMIT) & ~word & Swar.HIGH_BITS)
+                    | Swar.zeroBytes(word ^ QUOTES)
+                    | Swar.zeroBytes(word ^ BACKSLASHES);
+            if (found != 0) {
+                return i + Swar.firstFlagged(found);
+            }
+            i += Long.BYTES;
+        }
+        while (i < length) {
+            final byte b = bytes[i];
+            if (b < 0x20 || b == '"' || b == '\\') {
+                return i;
+            }
+            i++;
+        }
+        return length;
+    }
+
+    private static int escape(final byte b, final byte[] out, int pos) {
+        out[pos++] = '\\';
+        switch (b) {
+            case '"', '\\' -> out[pos++] = b;
+            case '\b' -> out[pos++] = 'b';
+            case '\t' -> out[pos++] = 't';
+            case '\n' -> out[pos++] = 'n';
+            case '\f' -> out[pos++] = 'f';
+            case '\r' -> out[pos++] = 'r';
+            default -> {
+                out[pos++] = 'u';
+                out[pos++] = '0';
+                out[pos++] = '0';
+                out[pos++] = HEX[b >> 4];
+                out[pos++] = HEX[b & 0xF];
+            }
+        }
+        return pos;
+    }
+
+    private static final class Scratch {
+        private final CharsetEncoder ascii = StandardCharsets.US_ASCII.newEncoder();
+        private char[] chars;
+        private byte[] bytes;
+        private CharBuffer charBuffer;
+        private ByteBuffer byteBuffer;
+        private byte[] escaped = new byte[512];
+
+        Scratch() {
+            allocate(256);
+        }
+
+        /**
+         * The string as one byte per char, or null if it is not all ASCII. Both copies are vectorized by the JDK.
+         */
+        byte[] ascii(final String value, final int length) {
+            if (chars.length < length) {
+                allocate(Math.min(Math.max(chars.length * 2, length), MAX_LENGTH));
+            }
+            value.getChars(0, length, chars, 0);
+            charBuffer.clear().limit(length);
+            byteBuffer.clear();
+            ascii.reset();
+            return ascii.encode(charBuffer, byteBuffer, true).isUnderflow() ? bytes : null;
+        }
+
+        byte[] ensureEscaped(final int needed) {
+            if (needed > escaped.length) {
+                escaped = Arrays.copyOf(escaped, Math.max(escaped.length * 2, needed));
+            }
+            return escaped;
+        }
+
+        private void allocate(final int capacity) {
+            chars = new char[capacity];
+            bytes = new byte[capacity];
+            charBuffer = CharBuffer.wrap(chars);
+            byteBuffer = ByteBuffer.wrap(bytes);
+        }
+    }
+}
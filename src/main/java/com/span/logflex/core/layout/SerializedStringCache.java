@@ -0,0 +1,113 @@
+package com.span.logflex.core.layout;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.apache.logging.log4j.Level;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pre-escaped, pre-encoded forms of the strings that repeat on nearly every event: logger, level and thread
+ * names and the keys of MDC, marker and configured fields. Jackson copies a {@link SerializedString}'s cached
+ * quoted bytes or chars instead of escaping and encoding the value again.
+ * <p>
+ * The cache stops growing at {@code maxSize} entries; later values are written the normal way, so dynamic
+ * values such as per-task thread names cannot exhaust memory. It reaches the serializers as an attribute of
+ * the layout's ObjectWriter.
+ */
+final class SerializedStringCache {
+    static final String ATTRIBUTE = SerializedStringCache.class.getName();
+
+    private final ConcurrentMap<String, SerializedString> strings = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    SerializedStringCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The cached form of a value, or null if it is not cached and the cache is full.
+     */
+    SerializedString get(final String value) {
+        final SerializedString cached = strings.get(value);
+        if (cached != null || strings.size() >= maxSize) {
+            return cached;
+        }
+        final SerializedString created = new SerializedString(value);
+        final SerializedString raced = strings.putIfAbsent(value, created);
+        return raced != null ? raced : created;
+    }
+
+    private static SerializedString lookup(final SerializerProvider provider, final String value) {
+        final Object cache = provider.getAttribute(ATTRIBUTE);
+        return cache != null && value != null ? ((SerializedStringCache) cache).get(value) : null;
+    }
+
+    static void writeString(final String value, final JsonGenerator gen, final SerializerProvider provider)
+            throws IOException {
+        final SerializedString cached = lookup(provider, value);
+        if (cached != null) {
+            gen.writeString(cached);
+        } else {
+            gen.writeString(value);
+        }
+    }
+
+    static void writeFieldName(final String name, final JsonGenerator gen, final SerializerProvider provider)
+            throws IOException {
+        final SerializedString cached = lookup(provider, name);
+        if (cached != null) {
+            gen.writeFieldName(cached);
+        } else {
+            gen.writeFieldName(name);
+        }
+    }
+
+    static void writeFields(final Map<String, String> fields, final JsonGenerator gen,
+                            final SerializerProvider provider) throws IOException {
+        for (final Map.Entry<String, String> field : fields.entrySet()) {
+            writeFieldName(field.getKey(), gen, provider);
+            JsonStrings.writeString(field.getValue(), gen);
+        }
+    }
+
+    static class StringSerializer extends JsonSerializer<String> {
+
+        @Override
+        public void serialize(final String value, final JsonGenerator gen, final SerializerProvider provider)
+                throws IOException {
+            writeString(value, gen, provider);
+        }
+    }
+
+    static class LevelSerializer extends JsonSerializer<Level> {
+
+        @Override
+        public void serialize(final Level value, final JsonGenerator gen, final SerializerProvider provider)
+                throws IOException {
+            writeString(value.name(), gen, provider);
+        }
+    }
+
+    /**
+     * Writes a map's entries as fields of the enclosing object, like {@code @JsonAnyGetter}, with cached keys.
+     */
+    static class FieldsSerializer extends JsonSerializer<Map<String, String>> {
+
+        @Override
+        public boolean isUnwrappingSerializer() {
+            return true;
+        }
+
+        @Override
+        public void serialize(final Map<String, String> value, final JsonGenerator gen,
+                              final SerializerProvider provider) throws IOException {
+            writeFields(value, gen, provider);
+        }
+    }
+}
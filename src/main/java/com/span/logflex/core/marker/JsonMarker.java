@@ -3,11 +3,23 @@ package com.span.logflex.core.marker;
 import org.apache.logging.log4j.Marker;
 
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * A marker carrying key/value data that is added to the JSON of the events logged with it.
+ * <p>
+ * Changes are made under the marker's lock and bump its version; the parents are an immutable array replaced
+ * on every change, so ancestry checks never lock. {@link #data()} merges the whole JsonMarker ancestry once and
+ * caches the result together with the version of every marker that went into it. A cached view is reused as
+ * long as none of those markers changed, so changes to unrelated markers never invalidate it.
+ */
 public class JsonMarker implements Marker {
+    private static final Marker[] NO_PARENTS = new Marker[0];
+
+    // guarded by this; copied only when data() has to merge again
     private final HashMap<String, String> data = new HashMap<>();
-    private List<Marker> parents;
+    private volatile Marker[] parents = NO_PARENTS;
+    private volatile long version;
+    private transient volatile MergedData merged;
 
     protected JsonMarker() {
     }
@@ -17,7 +29,10 @@ public class JsonMarker implements Marker {
     }
 
     public JsonMarker with(String key, String value) {
-        data.put(key, value);
+        synchronized (this) {
+            data.put(key, value);
+            version++;
+        }
 
         return this;
     }
@@ -32,10 +47,12 @@ public class JsonMarker implements Marker {
             Objects.requireNonNull(marker, "Marker element cannot be null");
         }
 
-        if (parents == null)
-            parents = new CopyOnWriteArrayList<>();
-
-        parents.addAll(Arrays.asList(markers));
+        synchronized (this) {
+            Marker[] copy = Arrays.copyOf(parents, parents.length + markers.length);
+            System.arraycopy(markers, 0, copy, parents.length, markers.length);
+            parents = copy;
+            version++;
+        }
 
         return this;
     }
@@ -49,53 +66,155 @@ public class JsonMarker implements Marker {
     public Marker[] getParents() {
 
         return hasParents() ?
-                parents.toArray(new Marker[0]) : null;
+                parents.clone() : null;
     }
 
     @Override
     public boolean hasParents() {
-        return parents != null;
+        return parents.length > 0;
     }
 
     @Override
     public boolean isInstanceOf(Marker m) {
-        return false;
+        Objects.requireNonNull(m, "Marker cannot be null");
+
+        return this == m || isInstanceOf(m, null, Collections.newSetFromMap(new IdentityHashMap<>()));
     }
 
     @Override
     public boolean isInstanceOf(String name) {
+        Objects.requireNonNull(name, "Marker name cannot be null");
+
+        return getName().equals(name) || isInstanceOf(null, name, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * Whether any ancestor is {@code m} or named {@code name}. JsonMarker parents are walked here so a cycle
+     * ends at the first marker seen twice; other markers answer for their own ancestry.
+     */
+    private boolean isInstanceOf(Marker m, String name, Set<JsonMarker> visited) {
+        if (!visited.add(this)) {
+            return false;
+        }
+
+        for (Marker parent : parents) {
+            if (m != null ? parent == m : parent.getName().equals(name)) {
+                return true;
+            }
+            if (parent instanceof JsonMarker that) {
+                if (that.isInstanceOf(m, name, visited)) {
+                    return true;
+                }
+            } else if (m != null ? parent.isInstanceOf(m) : parent.isInstanceOf(name)) {
+                return true;
+            }
+        }
+
         return false;
     }
 
     @Override
     public boolean remove(Marker marker) {
-        return parents.remove(marker);
+        synchronized (this) {
+            int index = Arrays.asList(parents).indexOf(marker);
+            if (index < 0) {
+                return false;
+            }
+
+            Marker[] copy = new Marker[parents.length - 1];
+            System.arraycopy(parents, 0, copy, 0, index);
+            System.arraycopy(parents, index + 1, copy, index, copy.length - index);
+            parents = copy;
+            version++;
+        }
+
+        return true;
     }
 
     @Override
     public Marker setParents(Marker... markers) {
-        parents = Arrays.asList(markers);
+        if (markers != null) {
+            for (Marker marker : markers) {
+                Objects.requireNonNull(marker, "Marker element cannot be null");
+            }
+        }
+
+        Marker[] copy = markers == null || markers.length == 0 ? NO_PARENTS : markers.clone();
+        synchronized (this) {
+            parents = copy;
+            version++;
+        }
 
         return this;
     }
 
+    /**
+     * The data of this marker merged with that of all its JsonMarker ancestors, where a parent's values
+     * override its child's and later parents override earlier ones. The returned map is shared and unmodifiable.
+     */
     public Map<String, String> data() {
-        HashMap<String, String> data = new HashMap<>(this.data);
+        MergedData cached = merged;
+        if (cached != null && cached.isCurrent()) {
+            return cached.data;
+        }
 
-        if (hasParents()) {
-            for (Marker parent : parents) {
-                if (parent instanceof JsonMarker that) {
-                    data.putAll(that.data);
-                }
-            }
+        HashMap<String, String> all = new HashMap<>();
+        IdentityHashMap<JsonMarker, Long> versions = new IdentityHashMap<>();
+        mergeInto(all, versions);
+        Map<String, String> result = all.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(all);
+        merged = MergedData.of(result, versions);
+
+        return result;
+    }
+
+    /**
+     * Each marker's data, parents and version are read together under its lock, one marker at a time, so a
+     * change racing with the merge always leaves a version behind that the next call sees as stale.
+     */
+    private void mergeInto(Map<String, String> target, Map<JsonMarker, Long> versions) {
+        if (versions.containsKey(this)) {
+            return;
         }
 
-        return data;
+        Marker[] snapshot;
+        synchronized (this) {
+            versions.put(this, version);
+            target.putAll(data);
+            snapshot = parents;
+        }
+        for (Marker parent : snapshot) {
+            if (parent instanceof JsonMarker that) {
+                that.mergeInto(target, versions);
+            }
+        }
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
 
         return getName() + data;
     }
+
+    private record MergedData(Map<String, String> data, JsonMarker[] markers, long[] versions) {
+
+        static MergedData of(Map<String, String> data, Map<JsonMarker, Long> seen) {
+            JsonMarker[] markers = new JsonMarker[seen.size()];
+            long[] versions = new long[seen.size()];
+            int i = 0;
+            for (Map.Entry<JsonMarker, Long> entry : seen.entrySet()) {
+                markers[i] = entry.getKey();
+                versions[i++] = entry.getValue();
+            }
+            return new MergedData(data, markers, versions);
+        }
+
+        boolean isCurrent() {
+            for (int i = 0; i < markers.length; i++) {
+                if (markers[i].version != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package com.span.logflex.core.message;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * An object that writes itself as JSON. When FlexJsonLayout has {@code objectMessageAsJsonObject} set and an
+ * ObjectMessage's parameter implements this, the layout calls {@link #writeJson} instead of serializing the
+ * parameter through Jackson databind, which skips bean introspection and the serializer lookup.
+ * <pre>
+ * record OrderShipped(long orderId, String warehouse) implements JsonWritable {
+ *     public void writeJson(JsonGenerator generator) throws IOException {
+ *         generator.writeStartObject();
+ *         generator.writeNumberField("orderId", orderId);
+ *         generator.writeStringField("warehouse", warehouse);
+ *         generator.writeEndObject();
+ *     }
+ * }
+ *
+ * log.info(new OrderShipped(42, "east-2"));
+ * </pre>
+ */
+public interface JsonWritable {
+
+    /**
+     * Writes exactly one JSON value, usually an object. {@link JsonGenerator#writeObject} still works for
+     * nested values that should go through databind.
+     */
+    void writeJson(JsonGenerator generator) throws IOException;
+}
@@ -0,0 +1,117 @@
+package com.span.logflex.core.reader;
+
+import org.apache.logging.log4j.Level;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line front end for {@link LogReader}.
+ * <pre>
+ * java -cp logflex-core.jar com.span.logflex.core.reader.LogGrep \
+ *     --level WARN --logger com.acme --from 2024-05-01T10:00:00Z --to 2024-05-01T10:02:00Z \
+ *     --field requestId=42 --marker Danger app.ndjson
+ * </pre>
+ * Matching records go to standard output, a summary to standard error. The files must hold one JSON event per
+ * line, as written by FlexJsonLayout with {@code compact="true"} and {@code eventEol="true"}; see
+ * {@link LogReader}.
+ */
+public final class LogGrep {
+    private static final String USAGE = "Usage: LogGrep [--level LEVEL] [--logger PREFIX] [--from TIME] [--to TIME]"
+            + " [--field NAME[=VALUE]]... [--marker NAME] [--threads N] FILE...\n"
+            + "TIME is ISO-8601 (2024-05-01T10:00:00Z) or epoch milliseconds.";
+
+    private LogGrep() {
+    }
+
+    public static void main(final String[] args) {
+        final LogQuery.Builder query = LogQuery.newBuilder();
+        final List<Path> files = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        Instant from = null;
+        Instant to = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--level" -> {
+                        final Level level = Level.getLevel(value(args, ++i).toUpperCase());
+                        if (level == null) {
+                            throw new IllegalArgumentException("Unknown level " + args[i]);
+                        }
+                        query.setLevel(level);
+                    }
+                    case "--logger" -> query.setLoggerPrefix(value(args, ++i));
+                    case "--from" -> from = parseTime(value(args, ++i));
+                    case "--to" -> to = parseTime(value(args, ++i));
+                    case "--marker" -> query.setMarker(value(args, ++i));
+                    case "--field" -> {
+                        final String field = value(args, ++i);
+                        final int eq = field.indexOf('=');
+                        query.addField(eq < 0 ? field : field.substring(0, eq), eq < 0 ? null : field.substring(eq + 1));
+                    }
+                    case "--threads" -> threads = Integer.parseInt(value(args, ++i));
+                    default -> {
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        files.add(Paths.get(args[i]));
+                    }
+                }
+            }
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("No input file");
+            }
+            query.setTimeRange(from, to);
+        } catch (final IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final LogReader reader = new LogReader(threads, LogReader.DEFAULT_CHUNK_SIZE);
+        final LogQuery built = query.build();
+        final OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        LogReader.Result total = new LogReader.Result(0, 0, 0);
+        int status = 0;
+        for (final Path file : files) {
+            try {
+                total = total.plus(reader.search(file, built, out));
+            } catch (final IOException e) {
+                System.err.println(file + ": " + e.getMessage());
+                status = 1;
+            }
+        }
+        System.err.printf("%d of %d records matched, %d malformed%n",
+                total.matches(), total.records(), total.malformed());
+        if (total.mostlyMalformed()) {
+            System.err.println("Most records are malformed: expected one JSON event per line, written by "
+                    + "FlexJsonLayout with compact=\"true\" and eventEol=\"true\"");
+        }
+        System.exit(status);
+    }
+
+    private static String value(final String[] args, final int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    private static Instant parseTime(final String text) {
+        try {
+            return text.chars().allMatch(Character::isDigit)
+                    ? Instant.ofEpochMilli(Long.parseLong(text))
+                    : Instant.parse(text);
+        } catch (final DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time " + text);
+        }
+    }
+}
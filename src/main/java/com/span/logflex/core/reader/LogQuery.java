@@ -0,0 +1,295 @@
+package com.span.logflex.core.reader;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.span.logflex.core.appender.TimeLevelIndex;
+import org.apache.logging.log4j.Level;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Filter over events written by {@code FlexJsonLayout}, evaluated on a streaming {@link JsonParser}.
+ * <p>
+ * Only the fields a condition refers to are read; everything else, including stack traces and nested
+ * messages, is skipped with {@link JsonParser#skipChildren()}. A record is rejected as soon as a level,
+ * logger or time condition fails, without reading the rest of it.
+ * <p>
+ * Field conditions match MDC entries and {@code JsonMarker} data, which the layout writes as top-level fields,
+ * as well as entries of a nested {@code contextMap} object.
+ */
+public final class LogQuery {
+    private static final int MAX_FIELDS = 64;
+
+    private final Level level;
+    private final String loggerPrefix;
+    private final long fromMillis;
+    private final long toMillis;
+    private final boolean timeBounded;
+    private final String marker;
+    private final String[] fieldNames;
+    private final String[] fieldValues;
+    private final long allFields;
+
+    private LogQuery(final Builder builder) {
+        this.level = builder.level;
+        this.loggerPrefix = builder.loggerPrefix;
+        this.fromMillis = builder.fromMillis;
+        this.toMillis = builder.toMillis;
+        this.timeBounded = builder.fromMillis != Long.MIN_VALUE || builder.toMillis != Long.MAX_VALUE;
+        this.marker = builder.marker;
+        this.fieldNames = builder.fields.keySet().toArray(new String[0]);
+        this.fieldValues = builder.fields.values().toArray(new String[0]);
+        this.allFields = fieldNames.length == MAX_FIELDS ? -1L : (1L << fieldNames.length) - 1;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * A query matching every record.
+     */
+    public static LogQuery all() {
+        return new Builder().build();
+    }
+
+    /**
+     * Whether an indexed run of events can hold a match, judged by its time range and levels alone.
+     */
+    boolean mayMatch(final TimeLevelIndex.Entry entry) {
+        return entry.mayMatch(fromMillis, toMillis, level != null ? level.intLevel() : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads one record from the parser and reports whether it satisfies every condition. The parser is left
+     * at an arbitrary position when the record is rejected early.
+     */
+    boolean matches(final JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        boolean timeSeen = false;
+        boolean markerSeen = false;
+        long fieldsSeen = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.currentName();
+            final JsonToken value = parser.nextToken();
+            switch (name) {
+                case "level":
+                    if (level != null && !levelMatches(parser.getValueAsString())) {
+                        return false;
+                    }
+                    break;
+                case "logger":
+                case "loggerName":
+                    if (loggerPrefix != null && !startsWith(parser.getValueAsString(), loggerPrefix)) {
+                        return false;
+                    }
+                    break;
+                case "timestamp":
+                case "timeMillis":
+                    if (timeBounded && value == JsonToken.VALUE_NUMBER_INT) {
+                        if (!inRange(parser.getLongValue())) {
+                            return false;
+                        }
+                        timeSeen = true;
+                    }
+                    break;
+                case "instant":
+                    if (timeBounded && !timeSeen) {
+                        final long millis = instantMillis(parser, value);
+                        if (millis != Long.MIN_VALUE) {
+                            if (!inRange(millis)) {
+                                return false;
+                            }
+                            timeSeen = true;
+                        }
+                    }
+                    break;
+                case "marker":
+                    if (marker != null && value == JsonToken.START_OBJECT) {
+                        markerSeen |= markerMatches(parser);
+                        continue;
+                    }
+                    break;
+                case "contextMap":
+                    if (fieldNames.length > 0 && value == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            final String key = parser.currentName();
+                            parser.nextToken();
+                            fieldsSeen |= fieldMatches(key, parser);
+                            parser.skipChildren();
+                        }
+                        continue;
+                    }
+                    break;
+                default:
+                    if (fieldNames.length > 0) {
+                        fieldsSeen |= fieldMatches(name, parser);
+                    }
+                    break;
+            }
+            parser.skipChildren();
+        }
+        return (!timeBounded || timeSeen) && (marker == null || markerSeen) && fieldsSeen == allFields;
+    }
+
+    private boolean levelMatches(final String name) {
+        final Level eventLevel = name != null ? Level.getLevel(name) : null;
+        return eventLevel != null && eventLevel.isMoreSpecificThan(level);
+    }
+
+    private boolean inRange(final long millis) {
+        return millis >= fromMillis && millis < toMillis;
+    }
+
+    private long fieldMatches(final String name, final JsonParser parser) throws IOException {
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (fieldNames[i].equals(name)) {
+                if (fieldValues[i] == null) {
+                    return 1L << i;
+                }
+                return parser.currentToken().isScalarValue() && fieldValues[i].equals(parser.getValueAsString())
+                        ? 1L << i : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Looks for the marker name among the marker and all of its parents, consuming the whole marker object.
+     */
+    private boolean markerMatches(final JsonParser parser) throws IOException {
+        boolean found = false;
+        int depth = 1;
+        while (depth > 0) {
+            final JsonToken token = parser.nextToken();
+            if (token == null) {
+                break;
+            }
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                depth++;
+            } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+                depth--;
+            } else if (token == JsonToken.FIELD_NAME && "name".equals(parser.currentName())) {
+                if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                    found |= marker.equals(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the {@code instant} field, either the ISO-8601 string the layout writes or Log4j's
+     * {@code {"epochSecond": .., "nanoOfSecond": ..}} object.
+     *
+     * @return epoch millis, or {@link Long#MIN_VALUE} if the value cannot be read
+     */
+    private static long instantMillis(final JsonParser parser, final JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return Instant.parse(parser.getText()).toEpochMilli();
+            } catch (final DateTimeParseException e) {
+                return Long.MIN_VALUE;
+            }
+        }
+        if (value == JsonToken.START_OBJECT) {
+            long seconds = Long.MIN_VALUE;
+            long nanos = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                if ("epochSecond".equals(name)) {
+                    seconds = parser.getValueAsLong();
+                } else if ("nanoOfSecond".equals(name)) {
+                    nanos = parser.getValueAsLong();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return seconds == Long.MIN_VALUE ? Long.MIN_VALUE : seconds * 1000 + nanos / 1_000_000;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static boolean startsWith(final String value, final String prefix) {
+        return value != null && value.startsWith(prefix);
+    }
+
+    public static final class Builder {
+        private Level level;
+        private String loggerPrefix;
+        private long fromMillis = Long.MIN_VALUE;
+        private long toMillis = Long.MAX_VALUE;
+        private String marker;
+        private final Map<String, String> fields = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        public LogQuery build() {
+            return new LogQuery(this);
+        }
+
+        /**
+         * Keeps events at this level or more specific, e.g. {@code WARN} keeps WARN, ERROR and FATAL.
+         *
+         * @return this builder
+         */
+        public Builder setLevel(final Level level) {
+            this.level = level;
+            return this;
+        }
+
+        /**
+         * Keeps events whose logger name starts with the prefix.
+         *
+         * @return this builder
+         */
+        public Builder setLoggerPrefix(final String loggerPrefix) {
+            this.loggerPrefix = loggerPrefix;
+            return this;
+        }
+
+        /**
+         * Keeps events in {@code [from, to)}; events without a readable time are dropped.
+         *
+         * @return this builder
+         */
+        public Builder setTimeRange(final Instant from, final Instant to) {
+            this.fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+            this.toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+            return this;
+        }
+
+        /**
+         * Keeps events whose marker, or one of its parents, has this name.
+         *
+         * @return this builder
+         */
+        public Builder setMarker(final String marker) {
+            this.marker = marker;
+            return this;
+        }
+
+        /**
+         * Keeps events with an MDC or marker field of this name and, unless {@code value} is null, this value.
+         *
+         * @return this builder
+         */
+        public Builder addField(final String name, final String value) {
+            if (fields.size() == MAX_FIELDS && !fields.containsKey(name)) {
+                throw new IllegalArgumentException("At most " + MAX_FIELDS + " field conditions are supported");
+            }
+            fields.put(name, value);
+            return this;
+        }
+    }
+}
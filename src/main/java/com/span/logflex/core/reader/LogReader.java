@@ -0,0 +1,326 @@
+package com.span.logflex.core.reader;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.span.logflex.core.appender.TimeLevelIndex;
+import com.span.logflex.core.buffer.Swar;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.util.Log4jThreadFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches NDJSON written by {@code FlexJsonLayout} with several threads.
+ * <p>
+ * The file is split into chunks whose boundaries are moved to the next newline or null delimiter, so every
+ * chunk holds whole records. Each chunk is memory-mapped and scanned by a worker that parses records with a
+ * streaming {@link LogQuery}. Matching records are written to the output in file order.
+ * <p>
+ * Leading {@code [} and {@code ,} separators from the layout's {@code complete} mode and runs of zero bytes
+ * from preallocated {@code MappedFile} segments are skipped.
+ * <p>
+ * Records are split on newlines and null bytes only, so the file must hold one event per line: FlexJsonLayout
+ * with {@code compact="true"} and {@code eventEol="true"}, as the MappedFile and BlockGzip appenders default
+ * to. Pretty-printed output makes every line a malformed record, and compact output without {@code eventEol}
+ * has no separator at all; a record holding several events is counted as malformed rather than matched.
+ * A search that finds mostly malformed records logs a warning, see {@link Result#mostlyMalformed()}.
+ */
+public final class LogReader {
+    private static final Logger LOGGER = StatusLogger.getLogger();
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 8192;
+    private static final long NEWLINES = Swar.repeat('\n');
+
+    private final JsonFactory factory = new JsonFactory();
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * A search outcome.
+     *
+     * @param records   non-empty records read
+     * @param matches   records written to the output
+     * @param malformed records that could not be parsed, such as a line torn by a crash
+     */
+    public record Result(long records, long matches, long malformed) {
+
+        Result plus(final Result other) {
+            return new Result(records + other.records, matches + other.matches, malformed + other.malformed);
+        }
+
+        /**
+         * Whether at least half of the records were malformed, which means the file is not one event per line
+         * rather than damaged here and there.
+         */
+        public boolean mostlyMalformed() {
+            return malformed > 0 && malformed * 2 >= records;
+        }
+    }
+
+    public LogReader(final int threads, final int chunkSize) {
+        if (threads <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("threads and chunkSize must be positive");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    public LogReader() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Writes every record of the file that matches the query to {@code out}, one per line. If the file has a
+     * {@link TimeLevelIndex}, only the indexed runs that may match and the unindexed tail are read.
+     */
+    public Result search(final Path file, final LogQuery query, final OutputStream out) throws IOException {
+        final Path indexFile = TimeLevelIndex.indexFileFor(file);
+        if (Files.isRegularFile(indexFile)) {
+            return search(file, ranges(TimeLevelIndex.read(indexFile), query), query, out);
+        }
+        return search(file, 0, Long.MAX_VALUE, query, out);
+    }
+
+    /**
+     * Like {@link #search(Path, LogQuery, OutputStream)}, restricted to the bytes in {@code [start, end)}.
+     * Both ends must be at record boundaries, as recorded by an index; {@code end} is capped at the file size.
+     */
+    public Result search(final Path file, final long start, final long end, final LogQuery query,
+                         final OutputStream out) throws IOException {
+        return search(file, List.of(new Range(start, end)), query, out);
+    }
+
+    private Result search(final Path file, final List<Range> ranges, final LogQuery query, final OutputStream out)
+            throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+                Log4jThreadFactory.createDaemonThreadFactory("LogReader"));
+        Result result = new Result(0, 0, 0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            for (final Range range : ranges) {
+                final long limit = Math.min(range.end, size);
+                long chunkStart = range.start;
+                while (chunkStart < limit) {
+                    final long chunkEnd = nextBoundary(channel, Math.min(limit, chunkStart + chunkSize), limit);
+                    final long from = chunkStart;
+                    inFlight.add(executor.submit(() -> scan(channel, from, chunkEnd, query)));
+                    chunkStart = chunkEnd;
+                    if (inFlight.size() >= threads * 2) {
+                        result = result.plus(complete(inFlight.poll(), out));
+                    }
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                result = result.plus(complete(inFlight.poll(), out));
+            }
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+        if (result.mostlyMalformed()) {
+            LOGGER.warn("{} of {} records in {} are malformed; LogReader needs one JSON event per line, written by "
+                    + "FlexJsonLayout with compact=\"true\" and eventEol=\"true\"", result.malformed(),
+                    result.records(), file);
+        }
+        return result;
+    }
+
+    /**
+     * Byte ranges of the index entries that may match, with adjacent entries merged, plus everything after the
+     * last entry since the index may lag the file.
+     */
+    private static List<Range> ranges(final List<TimeLevelIndex.Entry> entries, final LogQuery query) {
+        final List<Range> ranges = new ArrayList<>();
+        long start = -1;
+        long end = 0;
+        for (final TimeLevelIndex.Entry entry : entries) {
+            if (!query.mayMatch(entry)) {
+                continue;
+            }
+            if (start >= 0 && entry.offset() <= end) {
+                end = Math.max(end, entry.offset() + entry.length());
+            } else {
+                if (start >= 0) {
+                    ranges.add(new Range(start, end));
+                }
+                start = entry.offset();
+                end = entry.offset() + entry.length();
+            }
+        }
+        final long indexed = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).offset()
+                + entries.get(entries.size() - 1).length();
+        if (start >= 0 && end >= indexed) {
+            ranges.add(new Range(start, Long.MAX_VALUE));
+        } else {
+            if (start >= 0) {
+                ranges.add(new Range(start, end));
+            }
+            ranges.add(new Range(indexed, Long.MAX_VALUE));
+        }
+        return ranges;
+    }
+
+    /**
+     * Moves a chunk boundary past the next delimiter, or to {@code limit} if there is none.
+     */
+    private static long nextBoundary(final FileChannel channel, final long position, final long limit)
+            throws IOException {
+        if (position >= limit) {
+            return limit;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long offset = position - 1;
+        while (offset < limit) {
+            buffer.clear();
+            final int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                return limit;
+            }
+            for (int i = 0; i < read; i++) {
+                if (isDelimiter(buffer.get(i))) {
+                    return Math.min(limit, offset + i + 1);
+                }
+            }
+            offset += read;
+        }
+        return limit;
+    }
+
+    private Chunk scan(final FileChannel channel, final long start, final long end, final LogQuery query)
+            throws IOException {
+        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        final ByteArrayOutputStream matched = new ByteArrayOutputStream();
+        byte[] record = new byte[4096];
+        long records = 0;
+        long matches = 0;
+        long malformed = 0;
+        final int size = mapped.limit();
+        int recordStart = 0;
+        while (recordStart <= size) {
+            while (recordStart + Long.BYTES <= size && mapped.getLong(recordStart) == 0) {
+                // unwritten tail of a preallocated segment
+                recordStart += Long.BYTES;
+            }
+            final int i = nextDelimiter(mapped, recordStart, size);
+            int from = recordStart;
+            int to = i;
+            recordStart = i + 1;
+            while (from < to && isLeadingNoise(mapped.get(from))) {
+                from++;
+            }
+            while (to > from && isTrailingNoise(mapped.get(to - 1))) {
+                to--;
+            }
+            final int length = to - from;
+            if (length == 0) {
+                continue;
+            }
+            records++;
+            if (mapped.get(from) != '{') {
+                // a line of pretty-printed output
+                malformed++;
+                continue;
+            }
+            if (record.length < length) {
+                record = new byte[Math.max(length, record.length * 2)];
+            }
+            mapped.get(from, record, 0, length);
+            try (JsonParser parser = factory.createParser(record, 0, length)) {
+                if (query.matches(parser)) {
+                    if (parser.nextToken() != null) {
+                        // several events without a separator between them
+                        malformed++;
+                        continue;
+                    }
+                    matched.write(record, 0, length);
+                    matched.write('\n');
+                    matches++;
+                }
+            } catch (final JsonProcessingException e) {
+                malformed++;
+            }
+        }
+        return new Chunk(matched, new Result(records, matches, malformed));
+    }
+
+    private static Result complete(final Future<Chunk> future, final OutputStream out) throws IOException {
+        final Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while searching", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        chunk.matched.writeTo(out);
+        return chunk.result;
+    }
+
+    /**
+     * Finds the next newline or zero byte eight bytes at a time, using the classic SWAR zero-byte test.
+     *
+     * @return its index, or {@code size} if there is none
+     */
+    private static int nextDelimiter(final MappedByteBuffer mapped, final int from, final int size) {
+        int i = from;
+        while (i + Long.BYTES <= size) {
+            final long word = mapped.getLong(i);
+            final long found = Swar.zeroBytes(word) | Swar.zeroBytes(word ^ NEWLINES);
+            if (found != 0) {
+                return i + Swar.firstFlagged(found);
+            }
+            i += Long.BYTES;
+        }
+        while (i < size && !isDelimiter(mapped.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDelimiter(final byte b) {
+        return b == '\n' || b == 0;
+    }
+
+    private static boolean isLeadingNoise(final byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == ',' || b == '[';
+    }
+
+    private static boolean isTrailingNoise(final byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == ',' || b == ']';
+    }
+
+    private record Range(long start, long end) {
+    }
+
+    private record Chunk(ByteArrayOutputStream matched, Result result) {
+    }
+}
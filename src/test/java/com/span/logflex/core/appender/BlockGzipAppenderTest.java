@@ -0,0 +1,200 @@
+package com.span.logflex.core.appender;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30)
+class BlockGzipAppenderTest {
+    private BlockGzipAppender appender;
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void tearDown() {
+        if (appender != null) {
+            appender.stop(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void splitsBlocksByEvents() throws IOException {
+        appender = start(new LineLayout(), 3, 1024 * 1024, 60_000);
+        for (int i = 0; i < 7; i++) {
+            appender.append(LineLayout.event("event " + i));
+        }
+        appender.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(3, 3, 1), events(GzipBlockIndex.read(indexFile())));
+        assertEquals(lines(7), new String(decompressAll(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void splitsBlocksByBytes() throws IOException {
+        // each event is 8 bytes, so a block is handed over with its third event
+        appender = start(new LineLayout(), 1000, 20, 60_000);
+        for (int i = 0; i < 7; i++) {
+            appender.append(LineLayout.event("event " + i));
+        }
+        appender.stop(5, TimeUnit.SECONDS);
+
+        final List<GzipBlockIndex.Entry> entries = GzipBlockIndex.read(indexFile());
+        assertEquals(List.of(3, 3, 1), events(entries));
+        assertEquals(24, entries.get(0).uncompressedLength());
+    }
+
+    @Test
+    void everyBlockDecompressesOnItsOwnAtItsIndexedOffset() throws IOException {
+        appender = start(new LineLayout(), 2, 1024 * 1024, 60_000);
+        for (int i = 0; i < 5; i++) {
+            appender.append(LineLayout.event("event " + i));
+        }
+        appender.stop(5, TimeUnit.SECONDS);
+
+        final StringBuilder joined = new StringBuilder();
+        long compressedOffset = 0;
+        long uncompressedOffset = 0;
+        for (final GzipBlockIndex.Entry entry : GzipBlockIndex.read(indexFile())) {
+            assertEquals(compressedOffset, entry.compressedOffset());
+            assertEquals(uncompressedOffset, entry.uncompressedOffset());
+            try (InputStream in = GzipBlockIndex.openBlock(file(), entry)) {
+                final byte[] block = in.readAllBytes();
+                assertEquals(entry.uncompressedLength(), block.length);
+                joined.append(new String(block, StandardCharsets.UTF_8));
+            }
+            compressedOffset += entry.compressedLength();
+            uncompressedOffset += entry.uncompressedLength();
+        }
+        assertEquals(Files.size(file()), compressedOffset);
+        assertEquals(lines(5), joined.toString());
+    }
+
+    @Test
+    void flushesThePartialBlockAfterAQuietPeriod() throws Exception {
+        appender = start(new LineLayout(), 1000, 1024 * 1024, 50);
+        appender.append(LineLayout.event("event 0"));
+        appender.append(LineLayout.event("event 1"));
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<GzipBlockIndex.Entry> entries = GzipBlockIndex.read(indexFile());
+        while (entries.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            entries = GzipBlockIndex.read(indexFile());
+        }
+        assertEquals(List.of(2), events(entries));
+    }
+
+    @Test
+    void stopWritesTheFooterOnce() throws IOException {
+        appender = start(new LineLayout("[\n", "]\n"), 2, 1024 * 1024, 60_000);
+        appender.append(LineLayout.event("event 0"));
+        appender.append(LineLayout.event("event 1"));
+        appender.append(LineLayout.event("event 2"));
+
+        assertTrue(appender.stop(5, TimeUnit.SECONDS));
+        appender.stop(5, TimeUnit.SECONDS);
+
+        assertEquals("[\n" + lines(3) + "]\n", new String(decompressAll(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void loggingThreadsAndTheCompressorNeverWaitForEachOther() throws Exception {
+        // every event fills a block, one block may be pending and the compressor flushes all the time, so
+        // appenders keep waiting for the compressor while it keeps trying to flush
+        appender = BlockGzipAppender.newBuilder()
+                .setName("test")
+                .setLayout(new LineLayout())
+                .setFileName(file().toString())
+                .setBlockEvents(1000)
+                .setBlockBytes(8)
+                .setMaxBlockBytes(8)
+                .setMaxPendingBlocks(1)
+                .setFlushIntervalMillis(1)
+                .build();
+        appender.start();
+        final int threads = 4;
+        final int perThread = 2000;
+        final List<Thread> loggers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    appender.append(LineLayout.event("event " + i % 10));
+                }
+            });
+            thread.start();
+            loggers.add(thread);
+        }
+        for (final Thread thread : loggers) {
+            thread.join(TimeUnit.SECONDS.toMillis(20));
+            assertFalse(thread.isAlive(), "logging thread is stuck");
+        }
+        assertTrue(appender.stop(10, TimeUnit.SECONDS));
+
+        int events = 0;
+        for (final int blockEvents : events(GzipBlockIndex.read(indexFile()))) {
+            events += blockEvents;
+        }
+        assertEquals(threads * perThread, events);
+    }
+
+    private BlockGzipAppender start(final LineLayout layout, final int blockEvents, final int blockBytes,
+                                    final long flushIntervalMillis) {
+        final BlockGzipAppender started = BlockGzipAppender.newBuilder()
+                .setName("test")
+                .setLayout(layout)
+                .setFileName(file().toString())
+                .setBlockEvents(blockEvents)
+                .setBlockBytes(blockBytes)
+                .setFlushIntervalMillis(flushIntervalMillis)
+                .build();
+        started.start();
+        return started;
+    }
+
+    private Path file() {
+        return dir.resolve("app.log.gz");
+    }
+
+    private Path indexFile() {
+        return GzipBlockIndex.indexFileFor(file());
+    }
+
+    private byte[] decompressAll() throws IOException {
+        // the members concatenate into one gzip stream
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file()))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static List<Integer> events(final List<GzipBlockIndex.Entry> entries) {
+        final List<Integer> events = new ArrayList<>();
+        for (final GzipBlockIndex.Entry entry : entries) {
+            events.add(entry.events());
+        }
+        return events;
+    }
+
+    private static String lines(final int count) {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            lines.append("event ").append(i).append('\n');
+        }
+        return lines.toString();
+    }
+}
@@ -0,0 +1,18 @@
+package com.span.logflex.core.appender;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HttpBulkAppenderBuilderTest {
+
+    @Test
+    void spillIsRejected() {
+        assertNull(HttpBulkAppender.newBuilder()
+                .setName("test")
+                .setLayout(new LineLayout())
+                .setUrl("http://localhost:9200/_bulk")
+                .setOverflowPolicy(OverflowPolicy.SPILL)
+                .build());
+    }
+}
@@ -0,0 +1,135 @@
+package com.span.logflex.core.appender;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(60)
+class HttpBulkSenderTest {
+    private final Set<String> received = ConcurrentHashMap.newKeySet();
+    private final Set<String> encodings = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failFirst;
+    private final HttpServer server;
+
+    HttpBulkSenderTest() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/bulk", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void retryStormWithAFullQueueDeliversEverything() throws Exception {
+        failFirst = 12;
+        final BulkMetrics metrics = new BulkMetrics();
+        // one pending batch and two in flight: the queue stays full while every request is being retried
+        final HttpBulkSender sender = new HttpBulkSender("test", uri(), "application/x-ndjson",
+                Collections.emptyMap(), null, 20, 1 << 20, 5, false, 1, OverflowPolicy.BLOCK, 2, 30, 5,
+                1000, 5000, metrics);
+        sender.start();
+
+        final int count = 500;
+        for (int i = 0; i < count; i++) {
+            sender.append(("{\"n\":" + i + "}\n").getBytes(StandardCharsets.UTF_8));
+            if (i % 7 == 0) {
+                // let batches age out on the dispatcher as well as fill up here
+                Thread.sleep(1);
+            }
+        }
+
+        assertTrue(sender.stop(20, TimeUnit.SECONDS), "sender did not stop");
+        assertTrue(metrics.getRetries() >= 12);
+        assertEquals(0, metrics.getEventsDropped());
+        assertEquals(count, metrics.getEventsSent());
+        for (int i = 0; i < count; i++) {
+            assertTrue(received.contains("{\"n\":" + i + "}"), "missing event " + i);
+        }
+    }
+
+    @Test
+    void batchesAreSentWhenTheyAgeOut() throws Exception {
+        final BulkMetrics metrics = new BulkMetrics();
+        final HttpBulkSender sender = new HttpBulkSender("test", uri(), "application/x-ndjson",
+                Collections.emptyMap(), null, 1000, 1 << 20, 20, false, 4, OverflowPolicy.BLOCK, 1, 0, 5,
+                1000, 5000, metrics);
+        sender.start();
+        try {
+            sender.append("{\"n\":1}".getBytes(StandardCharsets.UTF_8));
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (metrics.getEventsSent() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, metrics.getEventsSent());
+            assertTrue(received.contains("{\"n\":1}"));
+        } finally {
+            sender.stop(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void gzipBodiesDecompressToTheBatch() throws Exception {
+        final BulkMetrics metrics = new BulkMetrics();
+        final HttpBulkSender sender = new HttpBulkSender("test", uri(), "application/x-ndjson",
+                Collections.emptyMap(), null, 3, 1 << 20, 1000, true, 4, OverflowPolicy.BLOCK, 1, 0, 5,
+                1000, 5000, metrics);
+        sender.start();
+        for (int i = 0; i < 6; i++) {
+            sender.append(("{\"n\":" + i + "}\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertTrue(sender.stop(10, TimeUnit.SECONDS), "sender did not stop");
+        assertEquals(6, metrics.getEventsSent());
+        assertEquals(Set.of("gzip"), encodings);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(received.contains("{\"n\":" + i + "}"), "missing event " + i);
+        }
+    }
+
+    private URI uri() {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + "/bulk");
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        encodings.add(String.valueOf(encoding));
+        final byte[] body;
+        try (InputStream in = "gzip".equals(encoding)
+                ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+        if (failures.getAndIncrement() < failFirst) {
+            exchange.sendResponseHeaders(503, -1);
+        } else {
+            for (final String line : new String(body, StandardCharsets.UTF_8).split("\n")) {
+                received.add(line);
+            }
+            exchange.sendResponseHeaders(200, -1);
+        }
+        exchange.close();
+    }
+}
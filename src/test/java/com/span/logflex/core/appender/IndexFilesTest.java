@@ -0,0 +1,69 @@
+package com.span.logflex.core.appender;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexFilesTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsTimeLevelEntriesAndIgnoresATrailingPartialEntry() throws IOException {
+        final ByteBuffer file = ByteBuffer.allocate(TimeLevelIndex.HEADER_SIZE + 2 * TimeLevelIndex.ENTRY_SIZE + 7);
+        file.put(TimeLevelIndex.header());
+        TimeLevelIndex.encode(8, 100, 3, 1000, 2000, TimeLevelIndex.levelBit(400), file);
+        TimeLevelIndex.encode(108, 50, 1, 2500, 2500, TimeLevelIndex.levelBit(200), file);
+        final Path path = write("segment.log.tidx", file);
+
+        final List<TimeLevelIndex.Entry> entries = TimeLevelIndex.read(path);
+        assertEquals(List.of(
+                new TimeLevelIndex.Entry(8, 100, 3, 1000, 2000, TimeLevelIndex.levelBit(400)),
+                new TimeLevelIndex.Entry(108, 50, 1, 2500, 2500, TimeLevelIndex.levelBit(200))), entries);
+    }
+
+    @Test
+    void readsBlockEntries() throws IOException {
+        final GzipBlockIndex.Entry first = new GzipBlockIndex.Entry(0, 321, 0, 4096, 12);
+        final GzipBlockIndex.Entry second = new GzipBlockIndex.Entry(321, 200, 4096, 1000, 3);
+        final ByteBuffer file = ByteBuffer.allocate(GzipBlockIndex.HEADER_SIZE + 2 * GzipBlockIndex.ENTRY_SIZE);
+        file.put(GzipBlockIndex.header());
+        GzipBlockIndex.encode(first, file);
+        GzipBlockIndex.encode(second, file);
+        final Path path = write("data.gz.idx", file);
+
+        assertEquals(List.of(first, second), GzipBlockIndex.read(path));
+    }
+
+    @Test
+    void rejectsAnotherIndexFormat() throws IOException {
+        final ByteBuffer file = ByteBuffer.allocate(GzipBlockIndex.HEADER_SIZE);
+        file.put(GzipBlockIndex.header());
+        final Path path = write("data.gz.idx", file);
+
+        final IOException e = assertThrows(IOException.class, () -> TimeLevelIndex.read(path));
+        assertTrue(e.getMessage().startsWith("Not a time/level index"));
+    }
+
+    @Test
+    void treatsAFileWithoutHeaderAsEmpty() throws IOException {
+        final Path path = write("empty.idx", ByteBuffer.allocate(3));
+
+        assertTrue(GzipBlockIndex.read(path).isEmpty());
+    }
+
+    private Path write(final String name, final ByteBuffer content) throws IOException {
+        final Path path = directory.resolve(name);
+        Files.write(path, content.array());
+        return path;
+    }
+}
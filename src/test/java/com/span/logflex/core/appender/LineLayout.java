@@ -0,0 +1,41 @@
+package com.span.logflex.core.appender;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.AbstractStringLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes each event's message followed by a newline, with an optional header and footer, so appender tests
+ * can check exactly which bytes ended up where.
+ */
+final class LineLayout extends AbstractStringLayout {
+
+    LineLayout() {
+        this(null, null);
+    }
+
+    LineLayout(final String header, final String footer) {
+        super(StandardCharsets.UTF_8, bytes(header), bytes(footer));
+    }
+
+    static LogEvent event(final String message) {
+        return Log4jLogEvent.newBuilder().setMessage(new SimpleMessage(message)).build();
+    }
+
+    @Override
+    public String getContentType() {
+        return "text/plain";
+    }
+
+    @Override
+    public String toSerializable(final LogEvent event) {
+        return event.getMessage().getFormattedMessage() + "\n";
+    }
+
+    private static byte[] bytes(final String text) {
+        return text != null ? text.getBytes(StandardCharsets.UTF_8) : null;
+    }
+}
@@ -0,0 +1,141 @@
+package com.span.logflex.core.appender;
+
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.layout.AbstractStringLayout;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedSegmentManagerTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void carriesAPartlyEncodedEventIntoTheNextSegment() throws IOException {
+        final LineLayout layout = new LineLayout();
+        final MappedSegmentManager manager = new MappedSegmentManager(directory.resolve("app.log"), 20, null, null,
+                0, 0);
+        manager.write(LineLayout.event("aaaaaaa"), layout);
+        manager.write(LineLayout.event("bbbbbbb"), layout);
+        // only 4 of its 8 bytes fit in the first segment
+        manager.write(LineLayout.event("ccccccc"), layout);
+        manager.close();
+
+        assertEquals(List.of("aaaaaaa\nbbbbbbb\n", "ccccccc\n"), segments());
+    }
+
+    @Test
+    void dropsAnEventThatDoesNotFitInAnEmptySegment() throws IOException {
+        final LineLayout layout = new LineLayout();
+        final MappedSegmentManager manager = new MappedSegmentManager(directory.resolve("app.log"), 16, null, null,
+                0, 0);
+        manager.write(LineLayout.event("small"), layout);
+        manager.write(LineLayout.event("this one is much too long"), layout);
+        manager.write(LineLayout.event("after"), layout);
+        manager.close();
+
+        assertEquals(List.of("small\n", "after\n"), segments());
+    }
+
+    @Test
+    void givesEverySegmentHeaderAndFooterAndTruncatesIt() throws IOException {
+        final LineLayout layout = new LineLayout("<\n", ">\n");
+        final MappedSegmentManager manager = new MappedSegmentManager(directory.resolve("app.log"), 64,
+                layout.getHeader(), layout.getFooter(), 0, 0);
+        for (int i = 0; i < 10; i++) {
+            manager.write(LineLayout.event("event-" + i), layout);
+        }
+        manager.close();
+
+        final List<String> segments = segments();
+        assertEquals(List.of(
+                "<\nevent-0\nevent-1\nevent-2\nevent-3\nevent-4\nevent-5\nevent-6\n>\n",
+                "<\nevent-7\nevent-8\nevent-9\n>\n"), segments);
+        for (final Path path : segmentPaths()) {
+            assertEquals(Files.readString(path).length(), Files.size(path));
+        }
+    }
+
+    @Test
+    void dropsTheSeparatorBeforeTheFirstEventOfASegmentInCompleteMode() throws IOException {
+        final SeparatedLayout layout = new SeparatedLayout();
+        final MappedSegmentManager manager = new MappedSegmentManager(directory.resolve("app.json"), 24,
+                layout.getHeader(), layout.getFooter(), 0, 0);
+        for (int i = 0; i < 5; i++) {
+            manager.write(LineLayout.event("e" + i), layout);
+        }
+        manager.close();
+
+        // "e4" did not fit and was carried into the second segment along with the ", " before it
+        assertEquals(List.of("[e0\n, e1\n, e2\n, e3\n]\n", "[e4\n]\n"), segments());
+    }
+
+    @Test
+    void resumesAfterTheLastSegmentOnRestart() throws IOException {
+        final LineLayout layout = new LineLayout();
+        final Path file = directory.resolve("app.log");
+        Files.writeString(directory.resolve("app-old.log"), "not a segment");
+        final MappedSegmentManager first = new MappedSegmentManager(file, 16, null, null, 0, 0);
+        first.write(LineLayout.event("first"), layout);
+        first.close();
+        final MappedSegmentManager second = new MappedSegmentManager(file, 16, null, null, 0, 0);
+        second.write(LineLayout.event("second"), layout);
+        second.close();
+
+        assertEquals(directory.resolve("app-000001.log"), second.getCurrentSegment());
+        assertEquals(List.of("first\n", "second\n"), segments());
+    }
+
+    @Test
+    void rejectsASegmentTooSmallForHeaderAndFooter() {
+        assertThrows(IllegalArgumentException.class, () -> new MappedSegmentManager(directory.resolve("app.log"),
+                4, new byte[] {'<', '\n'}, new byte[] {'>', '\n'}, 0, 0));
+    }
+
+    private List<Path> segmentPaths() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().matches(".*-\\d{6}\\..*")).sorted().toList();
+        }
+    }
+
+    private List<String> segments() throws IOException {
+        final List<String> segments = new ArrayList<>();
+        for (final Path path : segmentPaths()) {
+            segments.add(Files.readString(path));
+        }
+        return segments;
+    }
+
+    /**
+     * Writes events the way a complete-mode FlexJsonLayout does: an array header and footer, and ", " before
+     * every event but the first this layout ever wrote.
+     */
+    private static final class SeparatedLayout extends AbstractStringLayout {
+        SeparatedLayout() {
+            super(StandardCharsets.UTF_8, "[".getBytes(StandardCharsets.UTF_8),
+                    "]\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/json";
+        }
+
+        @Override
+        public String toSerializable(final LogEvent event) {
+            final String separator = eventCount > 0 ? ", " : "";
+            markEvent();
+            return separator + event.getMessage().getFormattedMessage() + "\n";
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.span.logflex.core.appender;
+
+import com.span.logflex.core.buffer.DiskOverflowQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Timeout(30)
+class NioSocketSenderTest {
+    private final ServerSocket server;
+    private NioSocketSender sender;
+
+    @TempDir
+    Path overflowDir;
+
+    NioSocketSenderTest() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(10_000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (sender != null) {
+            sender.stop(1, TimeUnit.SECONDS);
+        }
+        server.close();
+    }
+
+    @Test
+    void newlineFramingReplacesTheLayoutDelimiter() throws IOException {
+        sender = start(Framing.NEWLINE);
+        sender.offer(bytes("{\"n\":1}\n"));
+        sender.offer(bytes("{\"n\":2}"));
+        sender.offer(bytes("{\"n\":3}\r\n"));
+
+        try (Socket socket = server.accept()) {
+            final BufferedReader reader = reader(socket);
+            assertEquals("{\"n\":1}", reader.readLine());
+            assertEquals("{\"n\":2}", reader.readLine());
+            assertEquals("{\"n\":3}", reader.readLine());
+        }
+    }
+
+    @Test
+    void lengthPrefixFramingWritesEachPayloadLength() throws IOException {
+        sender = start(Framing.LENGTH_PREFIX);
+        for (int i = 0; i < 100; i++) {
+            sender.offer(bytes("{\"n\":" + i + "}\n"));
+        }
+
+        try (Socket socket = server.accept()) {
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 100; i++) {
+                final byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                assertEquals("{\"n\":" + i + "}", new String(payload, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    void reconnectsAfterThePeerClosesTheConnection() throws Exception {
+        sender = start(Framing.NEWLINE);
+        sender.offer(bytes("first"));
+        try (Socket socket = server.accept()) {
+            assertEquals("first", reader(socket).readLine());
+        }
+        // let the sender see the end of stream before the next write
+        Thread.sleep(200);
+
+        sender.offer(bytes("second"));
+        sender.offer(bytes("third"));
+        try (Socket socket = server.accept()) {
+            final BufferedReader reader = reader(socket);
+            assertEquals("second", reader.readLine());
+            assertEquals("third", reader.readLine());
+        }
+    }
+
+    @Test
+    void stopFlushesQueuedEvents() throws IOException {
+        sender = start(Framing.NULL_BYTE);
+        sender.offer(bytes("a"));
+        sender.offer(bytes("b"));
+
+        try (Socket socket = server.accept()) {
+            assertTrue(sender.stop(5, TimeUnit.SECONDS));
+            final byte[] all = socket.getInputStream().readAllBytes();
+            assertEquals("a\0b\0", new String(all, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void unsentEventsStayOnDiskWhenStoppedWhileUnreachable() throws IOException {
+        final int port = server.getLocalPort();
+        server.close();
+        DiskOverflowQueue overflow = new DiskOverflowQueue(overflowDir, 4096, 4);
+        overflow.offer(bytes("disk-1"), 0, 6);
+        overflow.offer(bytes("disk-2"), 0, 6);
+
+        sender = new NioSocketSender("test", "localhost", port, new ArrayBlockingQueue<>(16), overflow,
+                Framing.NEWLINE, 16, 1000, 10, 100);
+        sender.start();
+        sender.offer(bytes("memory-1"));
+        assertTrue(sender.stop(5, TimeUnit.SECONDS));
+        sender = null;
+
+        overflow = new DiskOverflowQueue(overflowDir, 4096, 4);
+        try {
+            assertEquals("disk-1", new String(overflow.poll(), StandardCharsets.UTF_8));
+            assertEquals("disk-2", new String(overflow.poll(), StandardCharsets.UTF_8));
+            assertEquals("memory-1", new String(overflow.poll(), StandardCharsets.UTF_8));
+            assertNull(overflow.poll());
+        } finally {
+            overflow.close();
+        }
+    }
+
+    private NioSocketSender start(final Framing framing) {
+        final NioSocketSender started = new NioSocketSender("test", "localhost", server.getLocalPort(),
+                new ArrayBlockingQueue<>(1024), null, framing, 16, 1000, 10, 100);
+        started.start();
+        return started;
+    }
+
+    private static BufferedReader reader(final Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package com.span.logflex.core.buffer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskOverflowQueueTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsSurviveReopeningInOrder() throws IOException {
+        try (DiskOverflowQueue queue = new DiskOverflowQueue(directory, 64, 8)) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(queue.offer(bytes("record-" + i), 0, bytes("record-" + i).length));
+            }
+        }
+        try (DiskOverflowQueue queue = new DiskOverflowQueue(directory, 64, 8)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("record-" + i, string(queue.poll()));
+            }
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    void rewindReadsAgainFromTheLastCheckpoint() throws IOException {
+        try (DiskOverflowQueue queue = new DiskOverflowQueue(directory, 64, 8)) {
+            for (int i = 0; i < 6; i++) {
+                queue.offer(bytes("record-" + i), 0, bytes("record-" + i).length);
+            }
+            assertEquals("record-0", string(queue.poll()));
+            assertEquals("record-1", string(queue.poll()));
+            queue.checkpoint();
+            assertEquals("record-2", string(queue.poll()));
+            assertEquals("record-3", string(queue.poll()));
+            assertEquals("record-4", string(queue.poll()));
+
+            queue.rewind();
+            assertEquals("record-2", string(queue.poll()));
+        }
+    }
+
+    @Test
+    void recordsPolledWithoutCheckpointAreReadAgainAfterReopening() throws IOException {
+        try (DiskOverflowQueue queue = new DiskOverflowQueue(directory, 64, 8)) {
+            for (int i = 0; i < 6; i++) {
+                queue.offer(bytes("record-" + i), 0, bytes("record-" + i).length);
+            }
+            queue.poll();
+            queue.checkpoint();
+            queue.poll();
+            queue.poll();
+            queue.rewind();
+        }
+        try (DiskOverflowQueue queue = new DiskOverflowQueue(directory, 64, 8)) {
+            assertEquals("record-1", string(queue.poll()));
+        }
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(final byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,36 @@
+package com.span.logflex.core.layout;
+
+import org.apache.logging.log4j.Level;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FlexJsonLayoutBuilderTest {
+
+    @Test
+    void rejectsSampleRateWithoutLocationInfoLevel() {
+        assertNull(FlexJsonLayout.newBuilder()
+                .setLocationInfo(true)
+                .setLocationInfoSampleRate(0.1)
+                .build());
+    }
+
+    @Test
+    void rejectsSampleRateOutOfRange() {
+        assertNull(FlexJsonLayout.newBuilder()
+                .setLocationInfo(true)
+                .setLocationInfoLevel(Level.WARN)
+                .setLocationInfoSampleRate(1.5)
+                .build());
+    }
+
+    @Test
+    void acceptsSampleRateWithLocationInfoLevel() {
+        assertNotNull(FlexJsonLayout.newBuilder()
+                .setLocationInfo(true)
+                .setLocationInfoLevel(Level.WARN)
+                .setLocationInfoSampleRate(0.1)
+                .build());
+    }
+}
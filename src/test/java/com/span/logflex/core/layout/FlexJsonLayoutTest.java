@@ -0,0 +1,356 @@
+package com.span.logflex.core.layout;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.span.logflex.core.marker.JsonMarker;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.layout.ByteBufferDestinationHelper;
+import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.apache.logging.log4j.util.StringMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlexJsonLayoutTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void toSerializableWritesTheDumpBeforeTheDumpingEvent() throws IOException {
+        FlexJsonLayout layout = recordingLayout();
+
+        assertEquals("", layout.toSerializable(event(Level.DEBUG, "first")));
+        assertEquals("", layout.toSerializable(event(Level.DEBUG, "second")));
+        assertEquals(List.of("first", "second", "failed"),
+                messages(layout.toSerializable(event(Level.ERROR, "failed"))));
+    }
+
+    @Test
+    void encodeWritesTheDumpBeforeTheDumpingEvent() throws IOException {
+        FlexJsonLayout layout = recordingLayout();
+        Destination destination = new Destination();
+
+        layout.encode(event(Level.DEBUG, "first"), destination);
+        layout.encode(event(Level.DEBUG, "second"), destination);
+        assertEquals("", destination.text());
+        layout.encode(event(Level.ERROR, "failed"), destination);
+
+        assertEquals(List.of("first", "second", "failed"), messages(destination.text()));
+    }
+
+    @Test
+    void eventsToWriteReturnsTheDumpAsSeparateEvents() throws IOException {
+        FlexJsonLayout layout = recordingLayout();
+
+        assertEquals(0, FlexJsonLayout.eventsToWrite(layout, event(Level.DEBUG, "first")).length);
+        assertEquals(0, FlexJsonLayout.eventsToWrite(layout, event(Level.DEBUG, "second")).length);
+        LogEvent[] events = FlexJsonLayout.eventsToWrite(layout, event(Level.ERROR, "failed"));
+
+        // each one is written on its own and is not recorded again
+        List<String> written = new ArrayList<>();
+        for (LogEvent each : events) {
+            List<String> messages = messages(layout.toSerializable(each));
+            assertEquals(1, messages.size());
+            written.addAll(messages);
+        }
+        assertEquals(List.of("first", "second", "failed"), written);
+    }
+
+    @Test
+    void eventsToWriteIsJustTheEventWithoutARecorder() {
+        LogEvent event = event(Level.DEBUG, "plain");
+
+        LogEvent[] events = FlexJsonLayout.eventsToWrite(compactLayout().build(), event);
+        assertEquals(1, events.length);
+        assertSame(event, events[0]);
+    }
+
+    @Test
+    void writesTheSourceAtOrAboveTheLocationInfoLevelOnly() throws IOException {
+        FlexJsonLayout layout = locationLayout(Level.WARN, 0);
+
+        assertTrue(hasSource(layout, Level.ERROR));
+        assertTrue(hasSource(layout, Level.WARN));
+        assertFalse(hasSource(layout, Level.INFO));
+        assertFalse(hasSource(layout, Level.DEBUG));
+    }
+
+    @Test
+    void writesTheSourceBelowTheLevelForTheSampledShare() throws IOException {
+        FlexJsonLayout never = locationLayout(Level.WARN, 0);
+        FlexJsonLayout always = locationLayout(Level.WARN, 1);
+
+        for (int i = 0; i < 100; i++) {
+            assertFalse(hasSource(never, Level.INFO));
+            assertTrue(hasSource(always, Level.INFO));
+        }
+        assertTrue(hasSource(never, Level.ERROR));
+    }
+
+    @Test
+    void requiresLocationOnlyWithoutALocationInfoLevel() throws IOException {
+        FlexJsonLayout unconditional = compactLayout().setLocationInfo(true).build();
+
+        assertTrue(unconditional.requiresLocation());
+        assertTrue(hasSource(unconditional, Level.DEBUG));
+        assertFalse(locationLayout(Level.WARN, 0).requiresLocation());
+        assertFalse(locationLayout(Level.WARN, 1).requiresLocation());
+        assertFalse(compactLayout().build().requiresLocation());
+    }
+
+    @Test
+    void cachedContextFieldsAreWrittenLikeTheMapBasedPath() throws IOException {
+        for (FlexJsonLayout layout : List.of(fieldsLayout(), unwrappedContextLayout())) {
+            CountingContext context = frozenContext("tenant", "a", "user", "quote \" and \u00e9");
+
+            assertEquals(mapBased(layout, context, null), cached(layout, context, null));
+            int calls = context.toMapCalls;
+            // the same map again and an equal copy of it are written from the cached fragment
+            assertEquals(mapBased(layout, context, null), cached(layout, context, null));
+            assertEquals(calls, context.toMapCalls);
+            CountingContext copy = frozenContext("tenant", "a", "user", "quote \" and \u00e9");
+            assertEquals(mapBased(layout, copy, null), cached(layout, copy, null));
+            assertEquals(0, copy.toMapCalls);
+
+            // a changed context map is encoded again
+            CountingContext changed = frozenContext("tenant", "b");
+            assertEquals(mapBased(layout, changed, null), cached(layout, changed, null));
+            assertEquals(1, changed.toMapCalls);
+        }
+    }
+
+    @Test
+    void cachedContextFieldsKeepTheMarkerFields() throws IOException {
+        FlexJsonLayout layout = fieldsLayout();
+        JsonMarker marker = JsonMarker.create().with("orderId", "42");
+        CountingContext context = frozenContext("tenant", "a");
+
+        assertEquals(mapBased(layout, context, marker), cached(layout, context, marker));
+        assertEquals("42", MAPPER.readTree(cached(layout, context, marker)).get("orderId").asText());
+    }
+
+    @Test
+    void keysSharedWithConfiguredOrMarkerFieldsFallBackToTheMapBasedPath() throws IOException {
+        FlexJsonLayout layout = fieldsLayout();
+
+        CountingContext configured = frozenContext("service", "from-context");
+        String withConfigured = cached(layout, configured, null);
+        assertEquals(mapBased(layout, configured, null), withConfigured);
+        assertEquals("from-context", MAPPER.readTree(withConfigured).get("service").asText());
+
+        JsonMarker marker = JsonMarker.create().with("tenant", "from-marker");
+        CountingContext marked = frozenContext("tenant", "from-context");
+        String withMarker = cached(layout, marked, marker);
+        assertEquals(mapBased(layout, marked, marker), withMarker);
+        assertEquals("from-marker", MAPPER.readTree(withMarker).get("tenant").asText());
+    }
+
+    @Test
+    void emptyContextIsWrittenLikeTheMapBasedPath() throws IOException {
+        for (FlexJsonLayout layout : List.of(fieldsLayout(), unwrappedContextLayout())) {
+            CountingContext empty = frozenContext();
+
+            assertEquals(mapBased(layout, empty, null), cached(layout, empty, null));
+        }
+    }
+
+    @Test
+    void writesTheSameWithAndWithoutTheStringCache() throws IOException {
+        FlexJsonLayout uncached = fieldsLayout(0);
+        // the tiny cache fills up on the first event, so later ones mix cached and uncached strings
+        for (FlexJsonLayout cached : List.of(fieldsLayout(2048), fieldsLayout(2))) {
+            for (int round = 0; round < 2; round++) {
+                for (LogEvent event : stringCacheEvents()) {
+                    assertEquals(uncached.toSerializable(event), cached.toSerializable(event));
+                    assertArrayEquals(uncached.toByteArray(event), cached.toByteArray(event));
+                }
+            }
+        }
+    }
+
+    private static FlexJsonLayout recordingLayout() {
+        return compactLayout()
+                .setFlightRecorderLevel(Level.INFO)
+                .setFlightRecorderDumpLevel(Level.ERROR)
+                .setFlightRecorderSize(8)
+                .build();
+    }
+
+    private static FlexJsonLayout locationLayout(Level level, double sampleRate) {
+        return compactLayout()
+                .setLocationInfo(true)
+                .setLocationInfoLevel(level)
+                .setLocationInfoSampleRate(sampleRate)
+                .build();
+    }
+
+    private static FlexJsonLayout fieldsLayout() {
+        return fieldsLayout(2048);
+    }
+
+    private static FlexJsonLayout fieldsLayout(int maxCachedStrings) {
+        return compactLayout()
+                .setAdditionalFields(new KeyValuePair[] {new KeyValuePair("service", "api")})
+                .setMaxCachedStrings(maxCachedStrings)
+                .build();
+    }
+
+    private static FlexJsonLayout unwrappedContextLayout() {
+        FlexJsonLayout.Builder<?> builder = compactLayout();
+        builder.setUnwrapContextMap(true);
+        return builder.build();
+    }
+
+    private static FlexJsonLayout.Builder<?> compactLayout() {
+        return FlexJsonLayout.newBuilder()
+                .setCompact(true)
+                .setEventEol(true);
+    }
+
+    private static LogEvent event(Level level, String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("test")
+                .setLevel(level)
+                .setMessage(new SimpleMessage(message))
+                .setThreadId(Thread.currentThread().threadId())
+                .setTimeMillis(1000)
+                .build();
+    }
+
+    private static boolean hasSource(FlexJsonLayout layout, Level level) throws IOException {
+        LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName("test")
+                .setLevel(level)
+                .setMessage(new SimpleMessage("located"))
+                .setIncludeLocation(true)
+                .setSource(new StackTraceElement("com.example.Service", "handle", "Service.java", 42))
+                .setTimeMillis(1000)
+                .build();
+        // the source is unwrapped into the event
+        return MAPPER.readTree(layout.toSerializable(event)).has("className");
+    }
+
+    /**
+     * The event with the frozen context map, which the layout may write from its context fragment cache.
+     */
+    private static String cached(FlexJsonLayout layout, StringMap context, JsonMarker marker) {
+        return layout.toSerializable(contextEvent(context, marker));
+    }
+
+    /**
+     * The event with a mutable copy of the context map, which is always written through
+     * {@link FlexJsonLayout.LogEventWithAdditionalFields}.
+     */
+    private static String mapBased(FlexJsonLayout layout, StringMap context, JsonMarker marker) {
+        SortedArrayStringMap mutable = new SortedArrayStringMap();
+        context.forEach((key, value) -> mutable.putValue(key, value));
+        return layout.toSerializable(contextEvent(mutable, marker));
+    }
+
+    private static LogEvent contextEvent(StringMap context, JsonMarker marker) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("test")
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage("context"))
+                .setMarker(marker)
+                .setContextData(context)
+                .setTimeMillis(1000)
+                .build();
+    }
+
+    private static List<LogEvent> stringCacheEvents() {
+        SortedArrayStringMap mutable = new SortedArrayStringMap();
+        mutable.putValue("tenant", "a");
+        mutable.putValue("request", "r-\u00e9\"1");
+        List<LogEvent> events = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            events.add(Log4jLogEvent.newBuilder()
+                    .setLoggerName("com.example.Service" + i % 2)
+                    .setLevel(i % 2 == 0 ? Level.INFO : Level.WARN)
+                    .setMessage(new SimpleMessage("event " + i))
+                    .setThreadName(i == 3 ? null : "worker-" + i)
+                    .setMarker(JsonMarker.create().with("orderId", "4" + i).with("note", (String) null))
+                    .setContextData(i % 2 == 0 ? mutable : frozenContext("tenant", "b", "user", "u" + i))
+                    .setTimeMillis(1000 + i)
+                    .build());
+        }
+        events.add(event(Level.ERROR, "no context"));
+        return events;
+    }
+
+    private static CountingContext frozenContext(String... keysAndValues) {
+        CountingContext context = new CountingContext();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            context.putValue(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        context.freeze();
+        return context;
+    }
+
+    private static List<String> messages(String lines) throws IOException {
+        List<String> messages = new ArrayList<>();
+        for (String line : lines.split("\r\n")) {
+            if (!line.isEmpty()) {
+                JsonNode node = MAPPER.readTree(line);
+                messages.add(node.get("message").asText());
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Counts {@link #toMap()} calls, which the context fragment cache only makes when it encodes a new map.
+     */
+    private static final class CountingContext extends SortedArrayStringMap {
+        int toMapCalls;
+
+        @Override
+        public Map<String, String> toMap() {
+            toMapCalls++;
+            return super.toMap();
+        }
+    }
+
+    private static final class Destination implements ByteBufferDestination {
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        String text() {
+            return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public ByteBuffer drain(ByteBuffer buf) {
+            throw new IllegalStateException("destination is full");
+        }
+
+        @Override
+        public void writeBytes(ByteBuffer data) {
+            ByteBufferDestinationHelper.writeToUnsynchronized(data, this);
+        }
+
+        @Override
+        public void writeBytes(byte[] data, int offset, int length) {
+            ByteBufferDestinationHelper.writeToUnsynchronized(data, offset, length, this);
+        }
+    }
+}
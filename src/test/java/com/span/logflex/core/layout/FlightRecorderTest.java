@@ -0,0 +1,114 @@
+package com.span.logflex.core.layout;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlightRecorderTest {
+    private static final long OTHER_THREAD = -1;
+
+    @Test
+    void dumpsTheMostRecentEventsOfTheThreadOldestFirst() {
+        FlightRecorder recorder = new FlightRecorder(Level.INFO, Level.ERROR, 2, null, 8, false);
+
+        assertTrue(recorder.record(event(Level.DEBUG, "first", currentThread(), null)));
+        assertTrue(recorder.record(event(Level.DEBUG, "second", currentThread(), null)));
+        assertTrue(recorder.record(event(Level.DEBUG, "third", currentThread(), null)));
+        assertFalse(recorder.record(event(Level.INFO, "written", currentThread(), null)));
+        assertEquals(0, recorder.dump(event(Level.WARN, "not a dump", currentThread(), null)).length);
+
+        assertEquals(List.of("second", "third"), messages(recorder.dump(event(Level.ERROR, "failed", currentThread(), null))));
+        assertEquals(0, recorder.dump(event(Level.ERROR, "again", currentThread(), null)).length);
+    }
+
+    @Test
+    void formatsTheMessageWhenRecording() {
+        FlightRecorder recorder = new FlightRecorder(Level.INFO, Level.ERROR, 4, null, 8, false);
+        List<String> items = new ArrayList<>(List.of("a"));
+
+        recorder.record(event(Level.DEBUG, new ParameterizedMessage("items {}", items), currentThread(), null));
+        items.add("b");
+
+        assertEquals(List.of("items [a]"), messages(recorder.dump(event(Level.ERROR, "failed", currentThread(), null))));
+    }
+
+    @Test
+    void groupsEventsByKeyAcrossThreads() {
+        FlightRecorder recorder = new FlightRecorder(Level.INFO, Level.ERROR, 4, "request", 8, false);
+
+        recorder.record(event(Level.DEBUG, "r1 here", currentThread(), "r1"));
+        recorder.record(event(Level.DEBUG, "r2 here", OTHER_THREAD, "r2"));
+        recorder.record(event(Level.DEBUG, "r1 there", OTHER_THREAD, "r1"));
+
+        assertEquals(List.of("r1 here", "r1 there"), messages(recorder.dump(event(Level.ERROR, "failed", OTHER_THREAD, "r1"))));
+        assertEquals(List.of("r2 here"), messages(recorder.dump(event(Level.ERROR, "failed", currentThread(), "r2"))));
+    }
+
+    @Test
+    void eventsEncodedOnAnotherThreadAreGroupedByTheirThread() {
+        FlightRecorder recorder = new FlightRecorder(Level.INFO, Level.ERROR, 4, null, 8, false);
+
+        recorder.record(event(Level.DEBUG, "elsewhere", OTHER_THREAD, null));
+        recorder.record(event(Level.DEBUG, "here", currentThread(), null));
+
+        assertEquals(List.of("elsewhere"), messages(recorder.dump(event(Level.ERROR, "failed", OTHER_THREAD, null))));
+        assertEquals(List.of("here"), messages(recorder.dump(event(Level.ERROR, "failed", currentThread(), null))));
+    }
+
+    @Test
+    void dropsTheLeastRecentlyUsedKey() throws InterruptedException {
+        FlightRecorder recorder = new FlightRecorder(Level.INFO, Level.ERROR, 4, "request", 2, false);
+
+        recorder.record(event(Level.DEBUG, "r1", OTHER_THREAD, "r1"));
+        recorder.record(event(Level.DEBUG, "r2", OTHER_THREAD, "r2"));
+        // use times come from System.nanoTime
+        Thread.sleep(1);
+        recorder.record(event(Level.DEBUG, "r1 again", OTHER_THREAD, "r1"));
+        recorder.record(event(Level.DEBUG, "r3", OTHER_THREAD, "r3"));
+
+        assertEquals(0, recorder.dump(event(Level.ERROR, "failed", OTHER_THREAD, "r2")).length);
+        assertEquals(List.of("r1", "r1 again"), messages(recorder.dump(event(Level.ERROR, "failed", OTHER_THREAD, "r1"))));
+        assertEquals(List.of("r3"), messages(recorder.dump(event(Level.ERROR, "failed", OTHER_THREAD, "r3"))));
+    }
+
+    private static long currentThread() {
+        return Thread.currentThread().threadId();
+    }
+
+    private static LogEvent event(Level level, String message, long threadId, String request) {
+        return event(level, new SimpleMessage(message), threadId, request);
+    }
+
+    private static LogEvent event(Level level, Message message, long threadId, String request) {
+        SortedArrayStringMap context = new SortedArrayStringMap();
+        if (request != null) {
+            context.putValue("request", request);
+        }
+        return Log4jLogEvent.newBuilder()
+                .setLevel(level)
+                .setMessage(message)
+                .setThreadId(threadId)
+                .setContextData(context)
+                .build();
+    }
+
+    private static List<String> messages(LogEvent[] events) {
+        List<String> messages = new ArrayList<>();
+        for (LogEvent event : events) {
+            messages.add(event.getMessage().getFormattedMessage());
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,82 @@
+package com.span.logflex.core.layout;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares {@link JsonStrings} with Jackson's own {@link JsonGenerator#writeString(String)} on typical messages.
+ * Skipped unless run explicitly:
+ * <pre>
+ * mvn test -Dtest=JsonStringsBenchmark -Dlogflex.benchmark=true
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "logflex.benchmark", matches = "true")
+class JsonStringsBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int WRITES_PER_ROUND = 1_000_000;
+    private static final int WRITES_PER_FLUSH = 1_000;
+
+    private final JsonFactory factory = new JsonFactory();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+    private long sink;
+
+    @Test
+    void compareWithJackson() throws IOException {
+        final Map<String, String> messages = new LinkedHashMap<>();
+        messages.put("short", "user logged in");
+        messages.put("clean 97", "Request GET /api/v1/orders/12345 completed with status 200 in 37 ms for client 10.0.0.17 ok");
+        messages.put("escaped 110", "Payload {\"id\":12345,\"state\":\"OPEN\",\"path\":\"C:\\\\data\\\\orders\"}\n\tat line 7 of the request body");
+        messages.put("clean 234", "Scheduled job reconcile-ledger finished: processed 18234 entries, skipped 12, "
+                + "retried 3, wrote 4 batches to the archive in 1534 ms; next run at 2024-05-01T12:00:00Z "
+                + "with the same configuration and no pending alerts");
+        messages.put("non-ascii", "Utilisateur cr\u00e9\u00e9 avec succ\u00e8s pour la r\u00e9gion \u00cele-de-France");
+
+        System.out.printf("%-12s %12s %12s%n", "message", "jackson ns", "fast ns");
+        for (final Map.Entry<String, String> message : messages.entrySet()) {
+            final double jackson = measure(message.getValue(), false);
+            final double fast = measure(message.getValue(), true);
+            System.out.printf("%-12s %12.1f %12.1f%n", message.getKey(), jackson, fast);
+        }
+        System.out.println(sink == 0 ? "" : "(" + sink + " bytes written)");
+    }
+
+    /**
+     * Best time per write over several rounds, in nanoseconds.
+     */
+    private double measure(final String value, final boolean fast) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round(value, fast);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            best = Math.min(best, round(value, fast));
+        }
+        return (double) best / WRITES_PER_ROUND;
+    }
+
+    private long round(final String value, final boolean fast) throws IOException {
+        final long start = System.nanoTime();
+        for (int i = 0; i < WRITES_PER_ROUND; i += WRITES_PER_FLUSH) {
+            out.reset();
+            try (JsonGenerator gen = factory.createGenerator(out)) {
+                for (int j = 0; j < WRITES_PER_FLUSH; j++) {
+                    if (fast) {
+                        JsonStrings.writeString(value, gen);
+                    } else {
+                        gen.writeString(value);
+                    }
+                }
+            }
+            sink += out.size();
+        }
+        return System.nanoTime() - start;
+    }
+}
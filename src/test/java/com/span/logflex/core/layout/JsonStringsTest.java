@@ -0,0 +1,84 @@
+package com.span.logflex.core.layout;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JsonStringsTest {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    @Test
+    void matchesJacksonForSpecialCharacters() throws IOException {
+        final List<String> values = List.of(
+                "plain ascii message without anything special",
+                "\"quoted\" and back\\slashed text with a / slash",
+                "tabs\tnew\nlines\rform\ffeed\bbell\u0007nul\u0000del\u007F and unit\u001F",
+                "exactly 16 chars",
+                "fifteen chars!!",
+                "seventeen chars!!",
+                "ends with a quote\"",
+                "\"starts with a quote and is long enough",
+                "caf\u00e9 au lait, n\u00e3o \u00fcber \u4e2d\u6587 and more text",
+                "emoji \uD83D\uDE00 in a longer ascii message",
+                "lone high surrogate \uD83D in a longer ascii message",
+                "lone low surrogate \uDE00 in a longer ascii message?",
+                "question marks ??? in a longer ascii message",
+                "x".repeat(20_000) + "\"",
+                "\\".repeat(100));
+        for (final String value : values) {
+            assertEquals(jackson(value), fast(value), value);
+        }
+    }
+
+    @Test
+    void matchesJacksonForRandomText() throws IOException {
+        final Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            final char[] chars = new char[random.nextInt(120)];
+            for (int j = 0; j < chars.length; j++) {
+                final int kind = random.nextInt(20);
+                chars[j] = kind == 0 ? (char) random.nextInt(0x20)
+                        : kind == 1 ? (char) (0x80 + random.nextInt(0x780))
+                        : kind == 2 ? "\"\\?/".charAt(random.nextInt(4))
+                        : (char) (0x20 + random.nextInt(0x60));
+            }
+            final String value = new String(chars);
+            assertEquals(jackson(value), fast(value), value);
+        }
+    }
+
+    @Test
+    void leavesCharacterGeneratorsToJackson() throws IOException {
+        final String value = "\"quoted\" text that is long enough";
+        final StringWriter writer = new StringWriter();
+        try (JsonGenerator gen = FACTORY.createGenerator(writer)) {
+            JsonStrings.writeString(value, gen);
+        }
+        assertEquals(jackson(value), writer.toString());
+    }
+
+    private static String fast(final String value) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = FACTORY.createGenerator(out)) {
+            JsonStrings.writeString(value, gen);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String jackson(final String value) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = FACTORY.createGenerator(out)) {
+            gen.writeString(value);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,35 @@
+package com.span.logflex.core.layout;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SerializedStringCacheTest {
+
+    @Test
+    void returnsTheSameInstanceForARepeatedValue() {
+        SerializedStringCache cache = new SerializedStringCache(4);
+
+        SerializedString first = cache.get("com.example.Service");
+        assertEquals("com.example.Service", first.getValue());
+        assertSame(first, cache.get("com.example.Service"));
+    }
+
+    @Test
+    void stopsGrowingAtMaxSize() {
+        SerializedStringCache cache = new SerializedStringCache(2);
+        SerializedString first = cache.get("worker-1");
+        SerializedString second = cache.get("worker-2");
+
+        for (int i = 3; i < 100; i++) {
+            assertNull(cache.get("worker-" + i));
+        }
+        // values cached before it filled up are still served
+        assertSame(first, cache.get("worker-1"));
+        assertSame(second, cache.get("worker-2"));
+        assertNull(cache.get("worker-3"));
+    }
+}
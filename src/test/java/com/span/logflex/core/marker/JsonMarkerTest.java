@@ -0,0 +1,80 @@
+package com.span.logflex.core.marker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonMarkerTest {
+
+    @Test
+    void parentsOverrideTheirChildren() {
+        JsonMarker grandparent = JsonMarker.create().with("region", "eu").with("team", "core");
+        JsonMarker parent = JsonMarker.create().with("service", "orders").with("team", "payments");
+        parent.addParents(grandparent);
+        JsonMarker child = JsonMarker.create().with("request", "r1").with("service", "x");
+        child.addParents(parent);
+
+        assertEquals(Map.of("region", "eu", "team", "core", "service", "orders", "request", "r1"), child.data());
+    }
+
+    @Test
+    void mergedDataIsCachedUntilAnAncestorChanges() {
+        JsonMarker parent = JsonMarker.create().with("region", "eu");
+        JsonMarker child = JsonMarker.create().with("request", "r1");
+        child.addParents(parent);
+
+        Map<String, String> first = child.data();
+        assertSame(first, child.data());
+
+        parent.with("region", "us");
+        Map<String, String> second = child.data();
+        assertNotSame(first, second);
+        assertEquals("us", second.get("region"));
+    }
+
+    @Test
+    void changesToUnrelatedMarkersKeepTheCache() {
+        JsonMarker parent = JsonMarker.create().with("region", "eu");
+        JsonMarker child = JsonMarker.create().with("request", "r1");
+        child.addParents(parent);
+        Map<String, String> cached = child.data();
+
+        JsonMarker.create().with("other", "value").addParents(JsonMarker.create());
+
+        assertSame(cached, child.data());
+    }
+
+    @Test
+    void replacingParentsInvalidatesTheCache() {
+        JsonMarker eu = JsonMarker.create().with("region", "eu");
+        JsonMarker us = JsonMarker.create().with("region", "us");
+        JsonMarker child = JsonMarker.create();
+        child.addParents(eu);
+        assertEquals("eu", child.data().get("region"));
+
+        child.setParents(us);
+        assertEquals("us", child.data().get("region"));
+
+        child.setParents();
+        assertFalse(child.hasParents());
+        assertTrue(child.data().isEmpty());
+    }
+
+    @Test
+    void cyclesEndAtTheFirstMarkerSeenTwice() {
+        JsonMarker a = JsonMarker.create().with("a", "1");
+        JsonMarker b = JsonMarker.create().with("b", "2");
+        a.addParents(b);
+        b.addParents(a);
+
+        assertEquals(Map.of("a", "1", "b", "2"), a.data());
+        assertTrue(a.isInstanceOf(b));
+        assertTrue(b.isInstanceOf(a));
+    }
+}
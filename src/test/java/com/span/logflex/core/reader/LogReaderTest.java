@@ -0,0 +1,176 @@
+package com.span.logflex.core.reader;
+
+import com.span.logflex.core.appender.TimeLevelIndex;
+import org.apache.logging.log4j.Level;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogReaderTest {
+    private static final String DEBUG = record(1000, "DEBUG", "com.acme.Orders", "loading", "\"requestId\":\"41\"");
+    private static final String INFO = record(2000, "INFO", "com.acme.Orders", "placed",
+            "\"requestId\":\"42\",\"marker\":{\"name\":\"Audit\",\"parents\":[{\"name\":\"Danger\"}]}");
+    private static final String WARN = record(3000, "WARN", "com.acme.Billing", "slow", "\"requestId\":\"42\"");
+    private static final String ERROR = record(4000, "ERROR", "com.acme.Orders", "failed",
+            "\"contextMap\":{\"requestId\":\"43\"}");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void matchesOnLevelLoggerFieldMarkerAndTime() throws IOException {
+        final Path file = write("app.log", lines(DEBUG, INFO, WARN, ERROR));
+
+        assertEquals(List.of(WARN, ERROR), search(file, LogQuery.newBuilder().setLevel(Level.WARN).build()));
+        assertEquals(List.of(DEBUG, INFO, ERROR),
+                search(file, LogQuery.newBuilder().setLoggerPrefix("com.acme.Ord").build()));
+        assertEquals(List.of(INFO, WARN), search(file, LogQuery.newBuilder().addField("requestId", "42").build()));
+        assertEquals(List.of(ERROR), search(file, LogQuery.newBuilder().addField("requestId", "43").build()));
+        assertEquals(List.of(INFO), search(file, LogQuery.newBuilder().setMarker("Danger").build()));
+        assertEquals(List.of(INFO, WARN), search(file, LogQuery.newBuilder()
+                .setTimeRange(Instant.ofEpochMilli(2000), Instant.ofEpochMilli(4000)).build()));
+        assertEquals(List.of(WARN), search(file, LogQuery.newBuilder()
+                .setLevel(Level.WARN).addField("requestId", "42").build()));
+    }
+
+    @Test
+    void countsRecordsMatchesAndMalformedLines() throws IOException {
+        final Path file = write("app.log", lines(DEBUG, "{\"level\":\"ERROR\",\"mess", ERROR, ""));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final LogReader.Result result = new LogReader(2, 64)
+                .search(file, LogQuery.newBuilder().setLevel(Level.ERROR).build(), out);
+
+        assertEquals(new LogReader.Result(3, 1, 1), result);
+        assertEquals(ERROR + "\n", out.toString(StandardCharsets.UTF_8));
+        assertFalse(result.mostlyMalformed());
+    }
+
+    @Test
+    void chunksEndOnRecordBoundariesAndKeepFileOrder() throws IOException {
+        final List<String> records = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            records.add(record(i, i % 2 == 0 ? "INFO" : "ERROR", "com.acme.Orders", "event " + i, "\"n\":" + i));
+        }
+        final Path file = write("app.log", lines(records.toArray(new String[0])));
+
+        for (final int chunkSize : new int[]{1, 37, 100, 4096}) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final LogReader.Result result = new LogReader(4, chunkSize).search(file, LogQuery.all(), out);
+            assertEquals(new LogReader.Result(200, 200, 0), result, "chunk size " + chunkSize);
+            assertEquals(lines(records.toArray(new String[0])), out.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void skipsTheZeroTailOfAPreallocatedSegment() throws IOException {
+        final byte[] text = lines(INFO, WARN).getBytes(StandardCharsets.UTF_8);
+        final byte[] segment = new byte[text.length + 1000];
+        System.arraycopy(text, 0, segment, 0, text.length);
+        final Path file = directory.resolve("segment.log");
+        Files.write(file, segment);
+
+        assertEquals(List.of(INFO, WARN), search(file, LogQuery.all()));
+    }
+
+    @Test
+    void stripsTheSeparatorsOfCompleteMode() throws IOException {
+        final Path file = write("app.log", "[\r\n" + INFO + "\r\n, " + WARN + "\r\n, " + ERROR + "\r\n]\r\n");
+
+        assertEquals(List.of(INFO, WARN, ERROR), search(file, LogQuery.all()));
+    }
+
+    @Test
+    void readsOnlyTheIndexedRunsThatMayMatchAndTheUnindexedTail() throws IOException {
+        // the second run claims to hold only DEBUG events, so its ERROR line must be skipped
+        final String hidden = record(2500, "ERROR", "com.acme.Orders", "hidden", "\"n\":0");
+        final String tail = record(5000, "ERROR", "com.acme.Orders", "unindexed", "\"n\":1");
+        final String first = lines(DEBUG, ERROR);
+        final String second = lines(hidden);
+        final Path file = write("segment.log", first + second + lines(tail));
+        final int firstLength = first.getBytes(StandardCharsets.UTF_8).length;
+        final int secondLength = second.getBytes(StandardCharsets.UTF_8).length;
+        writeIndex(file,
+                entry(0, firstLength, 2, 1000, 4000,
+                        TimeLevelIndex.levelBit(Level.DEBUG.intLevel()) | TimeLevelIndex.levelBit(Level.ERROR.intLevel())),
+                entry(firstLength, secondLength, 1, 2500, 2500, TimeLevelIndex.levelBit(Level.DEBUG.intLevel())));
+
+        assertEquals(List.of(ERROR, tail), search(file, LogQuery.newBuilder().setLevel(Level.ERROR).build()));
+        assertEquals(List.of(DEBUG, ERROR, hidden, tail), search(file, LogQuery.all()));
+    }
+
+    @Test
+    void flagsOutputThatIsNotOneEventPerLine() throws IOException {
+        final Path pretty = write("pretty.log", "{\n  \"level\" : \"INFO\",\n  \"message\" : \"placed\"\n}\n");
+        final LogReader.Result prettyResult = new LogReader(1, 1024)
+                .search(pretty, LogQuery.all(), new ByteArrayOutputStream());
+        assertEquals(new LogReader.Result(4, 0, 4), prettyResult);
+        assertTrue(prettyResult.mostlyMalformed());
+
+        final Path unseparated = write("compact.log", INFO + WARN + ERROR);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final LogReader.Result unseparatedResult = new LogReader(1, 1024).search(unseparated, LogQuery.all(), out);
+        assertEquals(new LogReader.Result(1, 0, 1), unseparatedResult);
+        assertTrue(unseparatedResult.mostlyMalformed());
+        assertEquals(0, out.size());
+    }
+
+    private static String record(final long millis, final String level, final String logger, final String message,
+                                 final String fields) {
+        return "{\"instant\":\"" + Instant.ofEpochMilli(millis) + "\",\"timeMillis\":" + millis + ",\"thread\":\"main\","
+                + "\"level\":\"" + level + "\",\"loggerName\":\"" + logger + "\",\"message\":\"" + message + "\","
+                + fields + ",\"endOfBatch\":false}";
+    }
+
+    private static String lines(final String... records) {
+        final StringBuilder lines = new StringBuilder();
+        for (final String record : records) {
+            lines.append(record).append('\n');
+        }
+        return lines.toString();
+    }
+
+    private Path write(final String name, final String content) throws IOException {
+        final Path file = directory.resolve(name);
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static List<String> search(final Path file, final LogQuery query) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new LogReader(2, 64).search(file, query, out);
+        final String text = out.toString(StandardCharsets.UTF_8);
+        return text.isEmpty() ? List.of() : List.of(text.split("\n"));
+    }
+
+    /**
+     * An entry in the big-endian layout of {@link TimeLevelIndex}.
+     */
+    private static ByteBuffer entry(final long offset, final int length, final int events, final long minMillis,
+                                    final long maxMillis, final int levels) {
+        return ByteBuffer.allocate(40).putLong(offset).putInt(length).putInt(events).putLong(minMillis)
+                .putLong(maxMillis).putInt(levels).putInt(0).flip();
+    }
+
+    private static void writeIndex(final Path segment, final ByteBuffer... entries) throws IOException {
+        final ByteBuffer index = ByteBuffer.allocate(8 + 40 * entries.length);
+        index.put("LFTI".getBytes(StandardCharsets.US_ASCII)).putInt(1);
+        for (final ByteBuffer entry : entries) {
+            index.put(entry);
+        }
+        Files.write(TimeLevelIndex.indexFileFor(segment), index.array());
+    }
+}